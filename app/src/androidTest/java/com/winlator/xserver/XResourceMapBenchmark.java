@@ -0,0 +1,105 @@
+package com.winlator.xserver;
+
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+/* Compares XResourceMap with the SparseArray it replaced at 1k, 10k and 100k live resources.
+ * Each round looks up every live id and replaces a tenth of them, the way clients create and free pixmaps and GCs while drawing. */
+@RunWith(AndroidJUnit4.class)
+public class XResourceMapBenchmark {
+    private static final String TAG = "XResourceMapBenchmark";
+    private static final int ROUNDS = 5;
+
+    private static int[] createIds(int count, Random random) {
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) ids[i] = 0x00200000 + i * 2 + random.nextInt(2);
+        return ids;
+    }
+
+    private static long runXResourceMap(int[] ids, int[] churnSlots, Object value) {
+        XResourceMap<Object> map = new XResourceMap<>();
+        int[] live = ids.clone();
+        int nextId = 0x00400000;
+        int found = 0;
+
+        long startTime = System.nanoTime();
+        for (int id : live) map.put(id, value);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int id : live) if (map.get(id) != null) found++;
+            for (int slot : churnSlots) {
+                map.remove(live[slot]);
+                live[slot] = nextId++;
+                map.put(live[slot], value);
+            }
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        assertEquals(ids.length * ROUNDS, found);
+        assertEquals(ids.length, map.size());
+        return elapsed;
+    }
+
+    private static long runSparseArray(int[] ids, int[] churnSlots, Object value) {
+        SparseArray<Object> map = new SparseArray<>();
+        int[] live = ids.clone();
+        int nextId = 0x00400000;
+        int found = 0;
+
+        long startTime = System.nanoTime();
+        for (int id : live) map.put(id, value);
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int id : live) if (map.get(id) != null) found++;
+            for (int slot : churnSlots) {
+                map.remove(live[slot]);
+                live[slot] = nextId++;
+                map.put(live[slot], value);
+            }
+        }
+        long elapsed = System.nanoTime() - startTime;
+
+        assertEquals(ids.length * ROUNDS, found);
+        assertEquals(ids.length, map.size());
+        return elapsed;
+    }
+
+    private static void compare(int liveResources) {
+        Random random = new Random(liveResources);
+        int[] ids = createIds(liveResources, random);
+        int[] churnSlots = new int[liveResources / 10];
+        for (int i = 0; i < churnSlots.length; i++) churnSlots[i] = random.nextInt(liveResources);
+        Object value = new Object();
+
+        runXResourceMap(ids, churnSlots, value);
+        runSparseArray(ids, churnSlots, value);
+
+        long xResourceMapNanos = runXResourceMap(ids, churnSlots, value);
+        long sparseArrayNanos = runSparseArray(ids, churnSlots, value);
+        long operations = liveResources + (long)ROUNDS * (liveResources + churnSlots.length * 2);
+        Log.i(TAG, String.format("%d live resources: XResourceMap %.1f ns/op, SparseArray %.1f ns/op",
+            liveResources, (double)xResourceMapNanos / operations, (double)sparseArrayNanos / operations));
+    }
+
+    @Test
+    public void compare1k() {
+        compare(1000);
+    }
+
+    @Test
+    public void compare10k() {
+        compare(10000);
+    }
+
+    @Test
+    public void compare100k() {
+        compare(100000);
+    }
+}
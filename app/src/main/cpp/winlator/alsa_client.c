@@ -1,10 +1,31 @@
 #include <aaudio/AAudio.h>
 #include <jni.h>
+#include <stdatomic.h>
+#include <stdbool.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
 
 #define WAIT_COMPLETION_TIMEOUT 100 * 1000000L
+#define MIN_WAIT_INTERVAL 500000L
 
 enum Format {U8, S16LE, S16BE, FLOATLE, FLOATBE};
 
+/* Single producer single consumer ring between the connector thread, which copies each period
+ * written by the guest, and the AAudio data callback, which pulls from it. Both indices count
+ * bytes since the stream was created, each side only stores its own index. */
+typedef struct ALSAStream {
+    AAudioStream *aaudioStream;
+    uint8_t *ring;
+    int32_t capacity;
+    int32_t frameBytes;
+    int32_t sampleRate;
+    _Atomic uint64_t writeIndex;
+    _Atomic uint64_t readIndex;
+    _Atomic int32_t underruns;
+} ALSAStream;
+
 static aaudio_format_t toAAudioFormat(int format) {
     switch (format) {
         case FLOATLE:
@@ -19,36 +40,164 @@ static aaudio_format_t toAAudioFormat(int format) {
     }
 }
 
-static AAudioStream *aaudioCreate(int32_t format, int8_t channelCount, int32_t sampleRate, int32_t bufferSize) {
+static int32_t getBytesPerSample(int format) {
+    switch (format) {
+        case U8:
+            return 1;
+        case FLOATLE:
+        case FLOATBE:
+            return 4;
+        case S16LE:
+        case S16BE:
+        default:
+            return 2;
+    }
+}
+
+static void ringWrite(ALSAStream *stream, uint64_t index, const uint8_t *data, int32_t size) {
+    int32_t offset = index % stream->capacity;
+    int32_t count = stream->capacity - offset;
+    if (count > size) count = size;
+    memcpy(stream->ring + offset, data, count);
+    if (count < size) memcpy(stream->ring, data + count, size - count);
+}
+
+static void ringRead(ALSAStream *stream, uint64_t index, uint8_t *data, int32_t size) {
+    int32_t offset = index % stream->capacity;
+    int32_t count = stream->capacity - offset;
+    if (count > size) count = size;
+    memcpy(data, stream->ring + offset, count);
+    if (count < size) memcpy(data + count, stream->ring, size - count);
+}
+
+static bool isStarted(ALSAStream *stream) {
+    aaudio_stream_state_t state = AAudioStream_getState(stream->aaudioStream);
+    return state == AAUDIO_STREAM_STATE_STARTING || state == AAUDIO_STREAM_STATE_STARTED;
+}
+
+/* Sleeps for about as long as the callback needs to play the given number of frames. */
+static void waitForFrames(ALSAStream *stream, int32_t numFrames) {
+    long interval = (long)((int64_t)numFrames * 1000000000L / stream->sampleRate);
+    if (interval < MIN_WAIT_INTERVAL) interval = MIN_WAIT_INTERVAL;
+    struct timespec ts = {interval / 1000000000L, interval % 1000000000L};
+    nanosleep(&ts, NULL);
+}
+
+static aaudio_data_callback_result_t aaudioDataCallback(AAudioStream *aaudioStream, void *userData, void *audioData, int32_t numFrames) {
+    ALSAStream *stream = (ALSAStream*)userData;
+    int32_t size = numFrames * stream->frameBytes;
+    uint64_t readIndex = atomic_load_explicit(&stream->readIndex, memory_order_relaxed);
+    uint64_t writeIndex = atomic_load_explicit(&stream->writeIndex, memory_order_acquire);
+
+    int32_t count = (int32_t)(writeIndex - readIndex);
+    if (count > size) count = size;
+    count -= count % stream->frameBytes;
+
+    ringRead(stream, readIndex, audioData, count);
+    atomic_store_explicit(&stream->readIndex, readIndex + count, memory_order_release);
+
+    if (count < size) {
+        memset((uint8_t*)audioData + count, 0, size - count);
+        atomic_fetch_add_explicit(&stream->underruns, 1, memory_order_relaxed);
+    }
+    return AAUDIO_CALLBACK_RESULT_CONTINUE;
+}
+
+static ALSAStream *alsaStreamCreate(int32_t format, int8_t channelCount, int32_t sampleRate, int32_t bufferSize) {
     aaudio_result_t result;
     AAudioStreamBuilder *builder;
-    AAudioStream *stream;
+    AAudioStream *aaudioStream;
+
+    if (sampleRate <= 0 || bufferSize <= 0) return NULL;
+
+    ALSAStream *stream = calloc(1, sizeof(ALSAStream));
+    if (!stream) return NULL;
+    stream->frameBytes = channelCount * getBytesPerSample(format);
+    stream->sampleRate = sampleRate;
+    stream->capacity = bufferSize * stream->frameBytes;
+    stream->ring = malloc(stream->capacity);
+    if (!stream->ring) {
+        free(stream);
+        return NULL;
+    }
 
     result = AAudio_createStreamBuilder(&builder);
-    if (result != AAUDIO_OK) return NULL;
+    if (result != AAUDIO_OK) {
+        free(stream->ring);
+        free(stream);
+        return NULL;
+    }
 
     AAudioStreamBuilder_setPerformanceMode(builder, AAUDIO_PERFORMANCE_MODE_LOW_LATENCY);
     AAudioStreamBuilder_setFormat(builder, toAAudioFormat(format));
     AAudioStreamBuilder_setChannelCount(builder, channelCount);
     AAudioStreamBuilder_setSampleRate(builder, sampleRate);
+    AAudioStreamBuilder_setDataCallback(builder, aaudioDataCallback, stream);
 
-    result = AAudioStreamBuilder_openStream(builder, &stream);
+    result = AAudioStreamBuilder_openStream(builder, &aaudioStream);
+    AAudioStreamBuilder_delete(builder);
     if (result != AAUDIO_OK) {
-        AAudioStreamBuilder_delete(builder);
+        free(stream->ring);
+        free(stream);
         return NULL;
     }
 
-    AAudioStream_setBufferSizeInFrames(stream, bufferSize);
-
-    result = AAudioStreamBuilder_delete(builder);
-    if (result != AAUDIO_OK) return NULL;
+    /* The guest buffer is held in the ring, AAudio itself only needs to stay a couple of bursts ahead. */
+    int32_t aaudioBufferSize = AAudioStream_getFramesPerBurst(aaudioStream) * 2;
+    if (aaudioBufferSize <= 0 || aaudioBufferSize > bufferSize) aaudioBufferSize = bufferSize;
+    AAudioStream_setBufferSizeInFrames(aaudioStream, aaudioBufferSize);
 
+    stream->aaudioStream = aaudioStream;
     return stream;
 }
 
-static int aaudioWrite(AAudioStream *aaudioStream, void *buffer, int numFrames) {
-    aaudio_result_t framesWritten = AAudioStream_write(aaudioStream, buffer, numFrames, WAIT_COMPLETION_TIMEOUT);
-    return framesWritten;
+/* Copies as many whole frames as fit, waiting for the callback to make room while the stream plays.
+ * Gives up on the rest after the same timeout a blocking AAudio write used to have. */
+static int alsaStreamWrite(ALSAStream *stream, const uint8_t *data, int32_t numFrames) {
+    int32_t size = numFrames * stream->frameBytes;
+    uint64_t writeIndex = atomic_load_explicit(&stream->writeIndex, memory_order_relaxed);
+    int32_t written = 0;
+    long waited = 0;
+
+    while (written < size) {
+        uint64_t readIndex = atomic_load_explicit(&stream->readIndex, memory_order_acquire);
+        int32_t count = stream->capacity - (int32_t)(writeIndex - readIndex);
+        if (count > size - written) count = size - written;
+        count -= count % stream->frameBytes;
+
+        if (count > 0) {
+            ringWrite(stream, writeIndex, data + written, count);
+            writeIndex += count;
+            written += count;
+            atomic_store_explicit(&stream->writeIndex, writeIndex, memory_order_release);
+            continue;
+        }
+
+        if (waited >= WAIT_COMPLETION_TIMEOUT || !isStarted(stream)) break;
+        int32_t missingFrames = (size - written) / stream->frameBytes;
+        waitForFrames(stream, missingFrames);
+        waited += (long)((int64_t)missingFrames * 1000000000L / stream->sampleRate) + MIN_WAIT_INTERVAL;
+    }
+    return written / stream->frameBytes;
+}
+
+/* Waits until the callback has played everything written so far. */
+static void alsaStreamDrain(ALSAStream *stream) {
+    long waited = 0;
+    while (waited < WAIT_COMPLETION_TIMEOUT && isStarted(stream)) {
+        uint64_t writeIndex = atomic_load_explicit(&stream->writeIndex, memory_order_relaxed);
+        uint64_t readIndex = atomic_load_explicit(&stream->readIndex, memory_order_acquire);
+        int32_t pendingFrames = (int32_t)(writeIndex - readIndex) / stream->frameBytes;
+        if (pendingFrames == 0) break;
+        waitForFrames(stream, pendingFrames);
+        waited += (long)((int64_t)pendingFrames * 1000000000L / stream->sampleRate) + MIN_WAIT_INTERVAL;
+    }
+}
+
+/* Only called once the callback has stopped, pending frames are dropped as if they had been played. */
+static void alsaStreamDiscard(ALSAStream *stream) {
+    uint64_t writeIndex = atomic_load_explicit(&stream->writeIndex, memory_order_relaxed);
+    atomic_store_explicit(&stream->readIndex, writeIndex, memory_order_release);
 }
 
 static void aaudioStart(AAudioStream *aaudioStream) {
@@ -66,53 +215,70 @@ static void aaudioPause(AAudioStream *aaudioStream) {
     AAudioStream_waitForStateChange(aaudioStream, AAUDIO_STREAM_STATE_PAUSING, NULL, WAIT_COMPLETION_TIMEOUT);
 }
 
-static void aaudioFlush(AAudioStream *aaudioStream) {
-    AAudioStream_requestFlush(aaudioStream);
-    AAudioStream_waitForStateChange(aaudioStream, AAUDIO_STREAM_STATE_FLUSHING, NULL, WAIT_COMPLETION_TIMEOUT);
-}
-
 JNIEXPORT jlong JNICALL
 Java_com_winlator_alsaserver_ALSAClient_create(JNIEnv *env, jobject obj, jint format,
                                                jbyte channelCount, jint sampleRate, jint bufferSize) {
-    return (jlong)aaudioCreate(format, channelCount, sampleRate, bufferSize);
+    return (jlong)alsaStreamCreate(format, channelCount, sampleRate, bufferSize);
 }
 
 JNIEXPORT jint JNICALL
 Java_com_winlator_alsaserver_ALSAClient_write(JNIEnv *env, jobject obj, jlong streamPtr, jobject buffer,
                                               jint numFrames) {
-    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
-    if (aaudioStream) {
-        return aaudioWrite(aaudioStream, (*env)->GetDirectBufferAddress(env, buffer), numFrames);
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) {
+        return alsaStreamWrite(stream, (*env)->GetDirectBufferAddress(env, buffer), numFrames);
     }
     else return -1;
 }
 
+JNIEXPORT jint JNICALL
+Java_com_winlator_alsaserver_ALSAClient_getPosition(JNIEnv *env, jobject obj, jlong streamPtr) {
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) {
+        return (jint)(atomic_load_explicit(&stream->readIndex, memory_order_acquire) / stream->frameBytes);
+    }
+    else return 0;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_alsaserver_ALSAClient_getUnderrunCount(JNIEnv *env, jobject obj, jlong streamPtr) {
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    return stream ? atomic_load_explicit(&stream->underruns, memory_order_relaxed) : 0;
+}
+
 JNIEXPORT void JNICALL
 Java_com_winlator_alsaserver_ALSAClient_start(JNIEnv *env, jobject obj, jlong streamPtr) {
-    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
-    if (aaudioStream) aaudioStart(aaudioStream);
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) aaudioStart(stream->aaudioStream);
 }
 
 JNIEXPORT void JNICALL
 Java_com_winlator_alsaserver_ALSAClient_stop(JNIEnv *env, jobject obj, jlong streamPtr) {
-    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
-    if (aaudioStream) aaudioStop(aaudioStream);
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) {
+        aaudioStop(stream->aaudioStream);
+        alsaStreamDiscard(stream);
+    }
 }
 
 JNIEXPORT void JNICALL
 Java_com_winlator_alsaserver_ALSAClient_pause(JNIEnv *env, jobject obj, jlong streamPtr) {
-    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
-    if (aaudioStream) aaudioPause(aaudioStream);
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) aaudioPause(stream->aaudioStream);
 }
 
 JNIEXPORT void JNICALL
-Java_com_winlator_alsaserver_ALSAClient_flush(JNIEnv *env, jobject obj, jlong streamPtr) {
-    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
-    if (aaudioStream) aaudioFlush(aaudioStream);
+Java_com_winlator_alsaserver_ALSAClient_drain(JNIEnv *env, jobject obj, jlong streamPtr) {
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) alsaStreamDrain(stream);
 }
 
 JNIEXPORT void JNICALL
 Java_com_winlator_alsaserver_ALSAClient_close(JNIEnv *env, jobject obj, jlong streamPtr) {
-    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
-    if (aaudioStream) AAudioStream_close(aaudioStream);
+    ALSAStream *stream = (ALSAStream*)streamPtr;
+    if (stream) {
+        AAudioStream_close(stream->aaudioStream);
+        free(stream->ring);
+        free(stream);
+    }
 }
@@ -7,12 +7,12 @@
 #include <android/bitmap.h>
 #include <android/log.h>
 
+#include "pixel_ops.h"
+
 #define WHITE 0xffffff
 #define BLACK 0x000000
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 
-enum GCFunction {GCF_CLEAR, GCF_AND, GCF_AND_REVERSE, GCF_COPY, GCF_AND_INVERTED, GCF_NO_OP, GCF_XOR, GCF_OR, GCF_NOR, GCF_EQUIV, GCF_INVERT, GCF_OR_REVERSE, GCF_COPY_INVERTED, GCF_OR_INVERTED, GCF_NAND, GCF_SET};
-
 static int packColor(int8_t r, int8_t g, int8_t b) {
     return ((r & 0xff00) << 8) | (g & 0xff00) | (b >> 8);
 }
@@ -24,54 +24,10 @@ static void unpackColor(int color, uint8_t *rgba) {
     rgba[3] = 255;
 }
 
-static int8_t getBit(uint8_t *line, int x) {
-    uint8_t mask = (1 << (x & 7));
-    line += (x >> 3);
-    return (*line & mask) ? 1 : 0;
-}
-
 static int getBitmapBytePad(int width) {
     return ((width + 32 - 1) >> 5) << 2;
 }
 
-static int setPixelOp(int srcColor, int dstColor, enum GCFunction gcFunction) {
-    switch (gcFunction) {
-        case GCF_CLEAR:
-            return BLACK;
-        case GCF_AND:
-            return srcColor & dstColor;
-        case GCF_AND_REVERSE:
-            return srcColor & ~dstColor;
-        case GCF_COPY:
-            return srcColor;
-        case GCF_AND_INVERTED:
-            return ~srcColor & dstColor;
-        case GCF_XOR:
-            return srcColor ^ dstColor;
-        case GCF_OR:
-            return srcColor | dstColor;
-        case GCF_NOR:
-            return ~srcColor & ~dstColor;
-        case GCF_EQUIV:
-            return ~srcColor ^ dstColor;
-        case GCF_INVERT:
-            return ~dstColor;
-        case GCF_OR_REVERSE:
-            return srcColor | ~dstColor;
-        case GCF_COPY_INVERTED:
-            return ~srcColor;
-        case GCF_OR_INVERTED:
-            return ~srcColor | dstColor;
-        case GCF_NAND:
-            return ~srcColor | ~dstColor;
-        case GCF_SET:
-            return WHITE;
-        case GCF_NO_OP:
-        default:
-            return dstColor;
-    }
-}
-
 JNIEXPORT void JNICALL
 Java_com_winlator_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
                                               jshort width, jshort height, jobject srcData,
@@ -85,10 +41,9 @@ Java_com_winlator_xserver_Drawable_drawBitmap(JNIEnv *env, jclass obj,
     }
 
     int stride = getBitmapBytePad(width);
-    for (int16_t y = 0, x; y < height; y++) {
-        for (x = 0; x < width; x++) {
-            *dstDataAddr++ = getBit(srcDataAddr, x) ? WHITE : BLACK;
-        }
+    for (int16_t y = 0; y < height; y++) {
+        expandBitmapRow((uint32_t*)dstDataAddr, srcDataAddr, width);
+        dstDataAddr += width;
         srcDataAddr += stride;
     }
 }
@@ -136,18 +91,9 @@ Java_com_winlator_xserver_Drawable_copyAreaOp(JNIEnv *env, jclass obj, jshort sr
     }
 
     for (int16_t y = 0; y < height; y++) {
-        for (int16_t x = 0; x < width; x++) {
-            int i = (x + srcX + (y + srcY) * srcStride) * 4;
-            int j = (x + dstX + (y + dstY) * dstStride) * 4;
-            int srcColor = (srcDataAddr[i] << 16) | (srcDataAddr[i+1] << 8) | srcDataAddr[i+2];
-            int dstColor = (dstDataAddr[j] << 16) | (dstDataAddr[j+1] << 8) | dstDataAddr[j+2];
-
-            dstColor = setPixelOp(srcColor, dstColor, gcFunction);
-
-            dstDataAddr[j] = (dstColor >> 16) & 0xff;
-            dstDataAddr[j+1] = (dstColor >> 8) & 0xff;
-            dstDataAddr[j+2] = dstColor & 0xff;
-        }
+        uint32_t *src = (uint32_t*)(srcDataAddr + (srcX + (y + srcY) * srcStride) * 4);
+        uint32_t *dst = (uint32_t*)(dstDataAddr + (dstX + (y + dstY) * dstStride) * 4);
+        copyRowOp(dst, src, width, gcFunction);
     }
 }
 
@@ -233,6 +179,147 @@ Java_com_winlator_xserver_Drawable_drawLine(JNIEnv *env, jclass obj, jshort x0,
     free(row);
 }
 
+static int16_t readInt16(const uint8_t *addr, bool bigEndian) {
+    return bigEndian ? (int16_t)((addr[0] << 8) | addr[1]) : (int16_t)(addr[0] | (addr[1] << 8));
+}
+
+static jint packDamage(int minY, int maxY) {
+    return minY < maxY ? (minY << 16) | maxY : -1;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_xserver_Drawable_fillRects(JNIEnv *env, jclass obj, jobject rects, jint count,
+                                             jboolean bigEndian, jint color, jshort width,
+                                             jshort height, jshort stride, jobject data) {
+    uint8_t *rectsAddr = (*env)->GetDirectBufferAddress(env, rects);
+    uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+
+    if (!rectsAddr || !dataAddr) {
+        printf("Error: NULL buffer address in fillRects\n");
+        return -1;
+    }
+
+    uint8_t rgba[4];
+    unpackColor(color, rgba);
+
+    uint8_t *row = malloc(width * 4);
+    if (!row) {
+        printf("Error: Failed to allocate memory for row\n");
+        return -1;
+    }
+
+    for (int i = 0; i < width * 4; i += 4) {
+        memcpy(row + i, rgba, 4);
+    }
+
+    int minY = height, maxY = 0;
+    for (int i = 0; i < count; i++, rectsAddr += 8) {
+        int x = readInt16(rectsAddr + 0, bigEndian);
+        int y = readInt16(rectsAddr + 2, bigEndian);
+        int x1 = x + (uint16_t)readInt16(rectsAddr + 4, bigEndian);
+        int y1 = y + (uint16_t)readInt16(rectsAddr + 6, bigEndian);
+        if (x < 0) x = 0;
+        if (y < 0) y = 0;
+        if (x1 > width) x1 = width;
+        if (y1 > height) y1 = height;
+        if (x >= x1 || y >= y1) continue;
+
+        int rowSize = (x1 - x) * 4;
+        for (int j = y; j < y1; j++) {
+            memcpy(dataAddr + (x + j * stride) * 4, row, rowSize);
+        }
+
+        if (y < minY) minY = y;
+        if (y1 > maxY) maxY = y1;
+    }
+
+    free(row);
+    return packDamage(minY, maxY);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_xserver_Drawable_drawLines(JNIEnv *env, jclass obj, jobject points, jint count,
+                                             jboolean bigEndian, jboolean relative, jint color,
+                                             jshort lineWidth, jshort width, jshort height,
+                                             jshort stride, jobject data) {
+    uint8_t *pointsAddr = (*env)->GetDirectBufferAddress(env, points);
+    uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+
+    if (!pointsAddr || !dataAddr) {
+        printf("Error: NULL buffer address in drawLines\n");
+        return -1;
+    }
+
+    if (count < 2 || lineWidth <= 0 || lineWidth > width || lineWidth > height) return -1;
+
+    uint8_t rgba[4];
+    unpackColor(color, rgba);
+
+    int rowSize = lineWidth * 4;
+    uint8_t *row = malloc(rowSize);
+    if (!row) {
+        printf("Error: Failed to allocate memory for row\n");
+        return -1;
+    }
+
+    for (int i = 0; i < rowSize; i += 4) {
+        memcpy(row + i, rgba, 4);
+    }
+
+    int maxX = width - lineWidth;
+    int maxPointY = height - lineWidth;
+    int minY = height, maxY = 0;
+    int px = readInt16(pointsAddr + 0, bigEndian);
+    int py = readInt16(pointsAddr + 2, bigEndian);
+
+    for (int i = 1; i < count; i++) {
+        int qx = readInt16(pointsAddr + i * 4 + 0, bigEndian);
+        int qy = readInt16(pointsAddr + i * 4 + 2, bigEndian);
+        if (relative) {
+            qx += px;
+            qy += py;
+        }
+
+        int x0 = px < 0 ? 0 : (px > maxX ? maxX : px);
+        int y0 = py < 0 ? 0 : (py > maxPointY ? maxPointY : py);
+        int x1 = qx < 0 ? 0 : (qx > maxX ? maxX : qx);
+        int y1 = qy < 0 ? 0 : (qy > maxPointY ? maxPointY : qy);
+        px = qx;
+        py = qy;
+
+        if (y0 < minY) minY = y0;
+        if (y1 < minY) minY = y1;
+        if (y0 + lineWidth > maxY) maxY = y0 + lineWidth;
+        if (y1 + lineWidth > maxY) maxY = y1 + lineWidth;
+
+        int dx =  abs(x1 - x0);
+        int dy = -abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int e1 = dx + dy, e2;
+
+        while (true) {
+            for (int j = 0; j < lineWidth; j++) {
+                memcpy(dataAddr + (x0 + (j + y0) * stride) * 4, row, rowSize);
+            }
+            if (x0 == x1 && y0 == y1) break;
+
+            e2 = e1 * 2;
+            if (e2 >= dy) {
+                e1 += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                e1 += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    free(row);
+    return packDamage(minY, maxY);
+}
+
 JNIEXPORT void JNICALL
 Java_com_winlator_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclass obj,
                                                          jbyte foreRed, jbyte foreGreen,
@@ -253,9 +340,40 @@ Java_com_winlator_xserver_Drawable_drawAlphaMaskedBitmap(JNIEnv *env, jclass obj
     int backColor = packColor(backRed, backGreen, backBlue);
 
     jlong dstLength = (*env)->GetDirectBufferCapacity(env, dstData) / 4;
-    for (int i = 0; i < dstLength; i++) {
-        dstDataAddr[i] = maskDataAddr[i] == WHITE ? (srcDataAddr[i] == WHITE ? foreColor : backColor) | 0xff000000 : 0x00000000;
+    alphaMaskPixels((uint32_t*)dstDataAddr, (uint32_t*)srcDataAddr, (uint32_t*)maskDataAddr, dstLength, foreColor, backColor);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_xserver_Drawable_resizeData(JNIEnv *env, jclass obj, jobject data,
+                                              jshort oldWidth, jshort oldHeight,
+                                              jshort newWidth, jshort newHeight) {
+    uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    if (!dataAddr) return;
+
+    int oldRowSize = oldWidth * 4;
+    int newRowSize = newWidth * 4;
+    int copyRowSize = oldRowSize < newRowSize ? oldRowSize : newRowSize;
+    int copyRows = oldHeight < newHeight ? oldHeight : newHeight;
+
+    if (newRowSize > oldRowSize) {
+        for (int y = copyRows - 1; y >= 0; y--) {
+            memmove(dataAddr + y * newRowSize, dataAddr + y * oldRowSize, copyRowSize);
+            memset(dataAddr + y * newRowSize + copyRowSize, 0, newRowSize - copyRowSize);
+        }
     }
+    else if (newRowSize < oldRowSize) {
+        for (int y = 1; y < copyRows; y++) {
+            memmove(dataAddr + y * newRowSize, dataAddr + y * oldRowSize, copyRowSize);
+        }
+    }
+
+    if (newHeight > copyRows) memset(dataAddr + copyRows * newRowSize, 0, (newHeight - copyRows) * newRowSize);
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_xserver_PixelBufferPool_clear(JNIEnv *env, jclass obj, jobject data, jint length) {
+    uint8_t *dataAddr = (*env)->GetDirectBufferAddress(env, data);
+    if (dataAddr) memset(dataAddr, 0, length);
 }
 
 JNIEXPORT void JNICALL
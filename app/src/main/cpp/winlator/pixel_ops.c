@@ -0,0 +1,135 @@
+#include <string.h>
+#include <stdbool.h>
+
+#if defined(__aarch64__) || defined(__arm__)
+#include <sys/auxv.h>
+#include <asm/hwcap.h>
+#endif
+
+#include "pixel_ops.h"
+
+#define RGB_MASK 0x00ffffff
+#define ALPHA_MASK 0xff000000
+#define WHITE 0xffffff
+
+/* GCC vector extensions compile to NEON on ARM and SSE2 on x86_64, so the same kernels can be checked off-device. */
+typedef uint32_t u32x4 __attribute__((vector_size(16)));
+typedef int32_t i32x4 __attribute__((vector_size(16)));
+
+static int simdEnabled = -1;
+
+static bool detectSIMD() {
+#if defined(__aarch64__)
+    return (getauxval(AT_HWCAP) & HWCAP_ASIMD) != 0;
+#elif defined(__arm__)
+    return (getauxval(AT_HWCAP) & HWCAP_NEON) != 0;
+#elif defined(__x86_64__)
+    return true;
+#else
+    return false;
+#endif
+}
+
+void pixelOpsSetSIMDEnabled(int enabled) {
+    simdEnabled = enabled && detectSIMD();
+}
+
+int pixelOpsIsSIMDEnabled() {
+    if (simdEnabled == -1) simdEnabled = detectSIMD();
+    return simdEnabled;
+}
+
+static inline u32x4 load4(const uint32_t *addr) {
+    u32x4 value;
+    memcpy(&value, addr, sizeof(value));
+    return value;
+}
+
+static inline void store4(uint32_t *addr, u32x4 value) {
+    memcpy(addr, &value, sizeof(value));
+}
+
+/* The GC function is applied to the color channels only, the alpha byte of the destination is kept.
+ * The expression is valid for both vector and scalar operands, it is expanded once for the SIMD body and once for the tail. */
+#define COPY_ROW_OP(expr) \
+    if (simd) { \
+        const u32x4 rgbMask = {RGB_MASK, RGB_MASK, RGB_MASK, RGB_MASK}; \
+        for (; i + 4 <= width; i += 4) { \
+            u32x4 s = load4(src + i); \
+            u32x4 d = load4(dst + i); \
+            (void)s; \
+            store4(dst + i, ((expr) & rgbMask) | (d & ~rgbMask)); \
+        } \
+    } \
+    for (; i < width; i++) { \
+        uint32_t s = src[i]; \
+        uint32_t d = dst[i]; \
+        (void)s; \
+        dst[i] = ((expr) & RGB_MASK) | (d & ALPHA_MASK); \
+    } \
+    break;
+
+void copyRowOp(uint32_t *dst, const uint32_t *src, int width, enum GCFunction gcFunction) {
+    bool simd = pixelOpsIsSIMDEnabled();
+    int i = 0;
+    switch (gcFunction) {
+        case GCF_CLEAR: COPY_ROW_OP(s ^ s)
+        case GCF_AND: COPY_ROW_OP(s & d)
+        case GCF_AND_REVERSE: COPY_ROW_OP(s & ~d)
+        case GCF_COPY: COPY_ROW_OP(s)
+        case GCF_AND_INVERTED: COPY_ROW_OP(~s & d)
+        case GCF_XOR: COPY_ROW_OP(s ^ d)
+        case GCF_OR: COPY_ROW_OP(s | d)
+        case GCF_NOR: COPY_ROW_OP(~s & ~d)
+        case GCF_EQUIV: COPY_ROW_OP(~s ^ d)
+        case GCF_INVERT: COPY_ROW_OP(~d)
+        case GCF_OR_REVERSE: COPY_ROW_OP(s | ~d)
+        case GCF_COPY_INVERTED: COPY_ROW_OP(~s)
+        case GCF_OR_INVERTED: COPY_ROW_OP(~s | d)
+        case GCF_NAND: COPY_ROW_OP(~s | ~d)
+        case GCF_SET: COPY_ROW_OP(~(s ^ s))
+        case GCF_NO_OP:
+        default:
+            break;
+    }
+}
+
+/* Expands an LSB first 1-bpp row to WHITE and BLACK pixels, eight pixels per source byte in the SIMD body. */
+void expandBitmapRow(uint32_t *dst, const uint8_t *src, int width) {
+    int x = 0;
+    if (pixelOpsIsSIMDEnabled()) {
+        const i32x4 lowBits = {1, 2, 4, 8};
+        const i32x4 highBits = {16, 32, 64, 128};
+        const i32x4 white = {WHITE, WHITE, WHITE, WHITE};
+        for (; x + 8 <= width; x += 8) {
+            int32_t byte = src[x >> 3];
+            i32x4 bits = {byte, byte, byte, byte};
+            store4(dst + x + 0, (u32x4)(((bits & lowBits) != 0) & white));
+            store4(dst + x + 4, (u32x4)(((bits & highBits) != 0) & white));
+        }
+    }
+
+    for (; x < width; x++) {
+        dst[x] = (src[x >> 3] & (1 << (x & 7))) ? WHITE : 0;
+    }
+}
+
+void alphaMaskPixels(uint32_t *dst, const uint32_t *src, const uint32_t *mask, int count, uint32_t foreColor, uint32_t backColor) {
+    int i = 0;
+    if (pixelOpsIsSIMDEnabled()) {
+        const u32x4 white = {WHITE, WHITE, WHITE, WHITE};
+        const u32x4 alpha = {ALPHA_MASK, ALPHA_MASK, ALPHA_MASK, ALPHA_MASK};
+        const u32x4 fore = {foreColor, foreColor, foreColor, foreColor};
+        const u32x4 back = {backColor, backColor, backColor, backColor};
+        for (; i + 4 <= count; i += 4) {
+            u32x4 srcWhite = (u32x4)(load4(src + i) == white);
+            u32x4 maskWhite = (u32x4)(load4(mask + i) == white);
+            u32x4 color = (fore & srcWhite) | (back & ~srcWhite);
+            store4(dst + i, (color | alpha) & maskWhite);
+        }
+    }
+
+    for (; i < count; i++) {
+        dst[i] = mask[i] == WHITE ? (src[i] == WHITE ? foreColor : backColor) | ALPHA_MASK : 0;
+    }
+}
@@ -0,0 +1,14 @@
+#ifndef WINLATOR_PIXEL_OPS_H
+#define WINLATOR_PIXEL_OPS_H
+
+#include <stdint.h>
+
+enum GCFunction {GCF_CLEAR, GCF_AND, GCF_AND_REVERSE, GCF_COPY, GCF_AND_INVERTED, GCF_NO_OP, GCF_XOR, GCF_OR, GCF_NOR, GCF_EQUIV, GCF_INVERT, GCF_OR_REVERSE, GCF_COPY_INVERTED, GCF_OR_INVERTED, GCF_NAND, GCF_SET};
+
+void pixelOpsSetSIMDEnabled(int enabled);
+int pixelOpsIsSIMDEnabled();
+void copyRowOp(uint32_t *dst, const uint32_t *src, int width, enum GCFunction gcFunction);
+void expandBitmapRow(uint32_t *dst, const uint8_t *src, int width);
+void alphaMaskPixels(uint32_t *dst, const uint32_t *src, const uint32_t *mask, int count, uint32_t foreColor, uint32_t backColor);
+
+#endif
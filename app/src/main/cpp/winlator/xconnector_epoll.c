@@ -5,8 +5,10 @@
 #include <sys/types.h>
 #include <sys/eventfd.h>
 #include <sys/un.h>
+#include <sys/uio.h>
 #include <unistd.h>
 #include <string.h>
+#include <errno.h>
 #include <malloc.h>
 #include <jni.h>
 #include <android/log.h>
@@ -14,6 +16,7 @@
 #define printf(...) __android_log_print(ANDROID_LOG_DEBUG, "System.out", __VA_ARGS__);
 #define MAX_EVENTS 10
 #define MAX_FDS 32
+#define MAX_IOVECS 32
 
 struct epoll_event events[MAX_EVENTS];
 
@@ -115,7 +118,61 @@ JNIEXPORT jint JNICALL
 Java_com_winlator_xconnector_ClientSocket_write(JNIEnv *env, jobject obj, jint fd, jobject data,
                                                 jint length) {
     char *dataAddr = (*env)->GetDirectBufferAddress(env, data);
-    return write(fd, dataAddr, length);
+    int bytesWritten = 0;
+    while (bytesWritten < length) {
+        ssize_t res = write(fd, dataAddr + bytesWritten, length - bytesWritten);
+        if (res < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        bytesWritten += res;
+    }
+    return bytesWritten;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_xconnector_ClientSocket_writev(JNIEnv *env, jobject obj, jint fd, jobjectArray buffers,
+                                                 jintArray offsets, jintArray lengths, jint count) {
+    if (count > MAX_IOVECS) return -1;
+    struct iovec iov[MAX_IOVECS];
+    jint *offsetsPtr = (*env)->GetIntArrayElements(env, offsets, NULL);
+    jint *lengthsPtr = (*env)->GetIntArrayElements(env, lengths, NULL);
+
+    int totalLength = 0;
+    for (int i = 0; i < count; i++) {
+        jobject data = (*env)->GetObjectArrayElement(env, buffers, i);
+        iov[i].iov_base = (char*)(*env)->GetDirectBufferAddress(env, data) + offsetsPtr[i];
+        iov[i].iov_len = lengthsPtr[i];
+        totalLength += lengthsPtr[i];
+        (*env)->DeleteLocalRef(env, data);
+    }
+
+    (*env)->ReleaseIntArrayElements(env, offsets, offsetsPtr, JNI_ABORT);
+    (*env)->ReleaseIntArrayElements(env, lengths, lengthsPtr, JNI_ABORT);
+
+    struct iovec *iovPtr = iov;
+    int iovCount = count;
+    int bytesWritten = 0;
+    while (bytesWritten < totalLength) {
+        ssize_t res = writev(fd, iovPtr, iovCount);
+        if (res < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+
+        bytesWritten += res;
+        while (iovCount > 0 && res >= iovPtr->iov_len) {
+            res -= iovPtr->iov_len;
+            iovPtr++;
+            iovCount--;
+        }
+
+        if (iovCount > 0) {
+            iovPtr->iov_base = (char*)iovPtr->iov_base + res;
+            iovPtr->iov_len -= res;
+        }
+    }
+    return bytesWritten;
 }
 
 JNIEXPORT jint JNICALL
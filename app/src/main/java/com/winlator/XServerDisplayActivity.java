@@ -1,8 +1,10 @@
 package com.winlator;
 
 import android.app.Activity;
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -230,6 +232,7 @@ import java.util.concurrent.Executors;
 
         inputControlsManager = new InputControlsManager(this);
         xServer = new XServer(new ScreenInfo(screenSize));
+        xServer.setLockOrderCheckEnabled((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
         xServer.setWinHandler(winHandler);
         boolean[] winStarted = {false};
         xServer.windowManager.addOnWindowModificationListener(new WindowManager.OnWindowModificationListener() {
@@ -323,6 +326,14 @@ import java.util.concurrent.Executors;
         }
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && xServer != null) {
+            xServer.drawableManager.getPixelBufferPool().trim();
+        }
+    }
+
     @Override
     protected void onDestroy() {
         stopSessionLogging();
@@ -6,7 +6,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 // Aligned with third_party/Winlator-Ludashi ALSA pipeline:
-// - Use native AAudio (JNI) for playback
+// - Use native AAudio (JNI) for playback, fed by its data callback from a native ring buffer
 // - Use shm buffer directly (no extra ACK/pointer protocol)
 public class ALSAClient {
     public enum DataType {
@@ -21,7 +21,6 @@ public class ALSAClient {
     private DataType dataType = DataType.U8;
     private byte channels = 2;
     private int sampleRate = 0;
-    private int position;
     private int bufferSize;
     private int frameBytes;
     private ByteBuffer sharedBuffer;
@@ -45,7 +44,6 @@ public class ALSAClient {
     }
 
     public void prepare() {
-        position = 0;
         frameBytes = channels * dataType.byteCount;
         release();
 
@@ -77,7 +75,7 @@ public class ALSAClient {
     }
 
     public void drain() {
-        if (streamPtr > 0) flush(streamPtr);
+        if (streamPtr > 0) drain(streamPtr);
     }
 
     public void writeDataToStream(ByteBuffer data) {
@@ -87,16 +85,21 @@ public class ALSAClient {
             data.order(ByteOrder.BIG_ENDIAN);
         }
 
-        if (playing) {
+        /* Frames written before start are kept in the ring so the guest can prefill it. */
+        if (streamPtr > 0) {
             int numFrames = data.limit() / frameBytes;
-            int framesWritten = write(streamPtr, data, numFrames);
-            if (framesWritten > 0) position += framesWritten;
+            write(streamPtr, data, numFrames);
             data.rewind();
         }
     }
 
+    /* Frames consumed by the AAudio callback since prepare, not merely queued. */
     public int pointer() {
-        return position;
+        return streamPtr > 0 ? getPosition(streamPtr) : 0;
+    }
+
+    public int getUnderrunCount() {
+        return streamPtr > 0 ? getUnderrunCount(streamPtr) : 0;
     }
 
     public void setDataType(DataType dataType) {
@@ -141,7 +144,11 @@ public class ALSAClient {
 
     private native void pause(long streamPtr);
 
-    private native void flush(long streamPtr);
+    private native int getPosition(long streamPtr);
+
+    private native int getUnderrunCount(long streamPtr);
+
+    private native void drain(long streamPtr);
 
     private native void close(long streamPtr);
 }
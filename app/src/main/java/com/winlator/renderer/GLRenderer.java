@@ -6,6 +6,7 @@ import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.winlator.R;
 import com.winlator.XrActivity;
@@ -15,22 +16,27 @@ import com.winlator.renderer.material.CursorMaterial;
 import com.winlator.renderer.material.ShaderMaterial;
 import com.winlator.renderer.material.WindowMaterial;
 import com.winlator.widget.XServerView;
+import com.winlator.xserver.Atom;
 import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Cursor;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pointer;
+import com.winlator.xserver.Property;
 import com.winlator.xserver.Window;
 import com.winlator.xserver.WindowAttributes;
 import com.winlator.xserver.WindowManager;
 import com.winlator.xserver.XLock;
+import com.winlator.xserver.XResource;
+import com.winlator.xserver.XResourceManager;
 import com.winlator.xserver.XServer;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindowModificationListener, Pointer.OnPointerMotionListener {
+public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener, Pointer.OnPointerMotionListener {
     public final XServerView xServerView;
     private final XServer xServer;
     public final VertexAttribute quadVertices = new VertexAttribute("position", 2);
@@ -41,6 +47,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     public final ViewTransformation viewTransformation = new ViewTransformation();
     private final Drawable rootCursorDrawable;
     private final ArrayList<RenderableWindow> renderableWindows = new ArrayList<>();
+    private final SparseArray<RenderableWindow> renderableWindowCache = new SparseArray<>();
+    private final ArrayList<Window> tmpWindowStack = new ArrayList<>();
     private String forceFullscreenWMClass = null;
     private boolean fullscreen = false;
     private boolean toggleFullscreen = false;
@@ -55,11 +63,21 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     private final EffectComposer effectComposer;
     // Optional callback invoked once per rendered frame (GL thread).
     private Runnable onFrameRendered;
+    private int uploadBytesSaved = 0;
+    private int lastFrameUploadBytesSaved = 0;
+    private boolean incrementalComposition = true;
+    private RenderTarget sceneTarget;
+    private final SceneDamage sceneDamage;
+    private final short[] damagedRects = new short[SceneDamage.MAX_RECTS * 4];
+    private final int[] savedFramebuffer = new int[1];
+    private final int[] savedViewport = new int[4];
+    private volatile boolean sceneContentChanged = true;
 
     public GLRenderer(XServerView xServerView, XServer xServer) {
         this.xServerView = xServerView;
         this.xServer = xServer;
         this.effectComposer = new EffectComposer(this);
+        this.sceneDamage = new SceneDamage(xServer.screenInfo.width, xServer.screenInfo.height);
         rootCursorDrawable = createRootCursorDrawable();
 
         quadVertices.put(new float[]{
@@ -70,7 +88,12 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         });
 
         xServer.windowManager.addOnWindowModificationListener(this);
+        xServer.windowManager.addOnResourceLifecycleListener(this);
         xServer.pointer.addOnPointerMotionListener(this);
+
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+            updateScene();
+        }
     }
 
     @Override
@@ -86,6 +109,9 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glEnable(GLES20.GL_BLEND);
         GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
+
+        sceneTarget = null;
+        sceneDamage.addAll();
     }
 
     @Override
@@ -114,7 +140,9 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
         }
 
+        uploadBytesSaved = 0;
         drawFrame();
+        lastFrameUploadBytesSaved = uploadBytesSaved;
 
         Runnable cb = onFrameRendered;
         if (cb != null) cb.run();
@@ -128,6 +156,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
             xrFrame = XrActivity.getInstance().beginFrame(xrImmersive, XrActivity.getSBS());
         }
 
+        if (incrementalComposition) composeScene();
+
         // Update the viewport if necessary
         if (viewportNeedsUpdate && magnifierEnabled) {
             if (fullscreen) {
@@ -177,7 +207,10 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
             }
         }
 
-        renderWindows();
+        if (incrementalComposition) {
+            renderSceneLayer();
+        }
+        else renderWindows();
 
         // Render cursor if enabled
         if (cursorVisible) renderCursor();
@@ -203,36 +236,64 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     @Override
     public void onMapWindow(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        updateRenderableSubtree(window);
         xServerView.requestRender();
     }
 
     @Override
     public void onUnmapWindow(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        updateRenderableSubtree(window);
         xServerView.requestRender();
     }
 
     @Override
     public void onChangeWindowZOrder(Window window) {
-        xServerView.queueEvent(this::updateScene);
+        updateRenderableSubtree(window);
         xServerView.requestRender();
     }
 
     @Override
     public void onUpdateWindowContent(Window window) {
+        sceneContentChanged = true;
         xServerView.requestRender();
     }
 
     @Override
     public void onUpdateWindowGeometry(final Window window, boolean resized) {
         if (resized) {
-            xServerView.queueEvent(this::updateScene);
+            updateRenderableSubtree(window);
         }
-        else xServerView.queueEvent(() -> updateWindowPosition(window));
+        else updateRenderableSubtreePosition(window, window.getRootX(), window.getRootY());
         xServerView.requestRender();
     }
 
+    @Override
+    public void onModifyWindowProperty(Window window, Property property) {
+        if (property == null || property.name != Atom.getId("WM_CLASS")) return;
+        RenderableWindow renderableWindow = renderableWindowCache.get(window.id);
+        if (renderableWindow == null || renderableWindow.viewability == RenderableWindow.VIEWABILITY_UNKNOWN) return;
+
+        renderableWindow.viewability = RenderableWindow.VIEWABILITY_UNKNOWN;
+        if (forceFullscreenWMClass != null || unviewableWMClasses != null) {
+            updateRenderableSubtree(window);
+            xServerView.requestRender();
+        }
+    }
+
+    @Override
+    public void onFreeResource(XResource resource) {
+        if (!(resource instanceof Window)) return;
+        RenderableWindow renderableWindow = renderableWindowCache.get(resource.id);
+        if (renderableWindow == null) return;
+
+        if (renderableWindow.listed) {
+            renderableWindows.remove(renderableWindow.index);
+            renderableWindow.listed = false;
+            updateRenderableWindowIndices(renderableWindow.index);
+        }
+        renderableWindowCache.remove(resource.id);
+    }
+
     @Override
     public void onUpdateWindowAttributes(Window window, Bitmask mask) {
         if (mask.isSet(WindowAttributes.FLAG_CURSOR)) xServerView.requestRender();
@@ -240,7 +301,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     @Override
     public void onPointerMove(short x, short y) {
-        xServerView.requestRender();
+        // Only the cursor overlay and the pointer-relative view offsets depend on the pointer position
+        if (cursorVisible || screenOffsetYRelativeToCursor || (magnifierEnabled && magnifierZoom != 1.0f)) xServerView.requestRender();
     }
 
 
@@ -248,7 +310,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         if (drawable == null) return;
         synchronized (drawable.renderLock) {
             Texture texture = drawable.getTexture();
-            texture.updateFromDrawable(drawable);
+            uploadBytesSaved += texture.updateFromDrawable(drawable);
 
             XForm.set(tmpXForm1, x, y, drawable.width, drawable.height);
 
@@ -268,7 +330,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glUniform2f(windowMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
         quadVertices.bind(windowMaterial.programId);
 
-        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+        try (XLock lock = xServer.lockShared(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
             for (RenderableWindow window : renderableWindows) {
                 renderDrawable(window.content, window.rootX, window.rootY, windowMaterial);
             }
@@ -288,7 +350,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glUniform2f(cursorMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
         quadVertices.bind(cursorMaterial.programId);
 
-        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+        try (XLock lock = xServer.lockShared(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
             Window pointWindow = xServer.inputDeviceManager.getPointWindow();
             Cursor cursor = pointWindow != null ? pointWindow.attributes.getCursor() : null;
             short x = xServer.pointer.getClampedX();
@@ -303,6 +365,96 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         quadVertices.disable();
     }
 
+    private void collectSceneDamage() {
+        for (RenderableWindow window : renderableWindows) {
+            Drawable content = window.content;
+            synchronized (content.renderLock) {
+                Texture texture = content.getTexture();
+                if (texture.isAllocated() && !texture.isNeedsUpdate()) continue;
+                uploadBytesSaved += texture.updateFromDrawable(content);
+
+                int bandCount = texture.getDamagedBandCount();
+                if (bandCount > 0) {
+                    short[] rows = texture.getDamagedRows();
+                    for (int i = 0; i < bandCount; i++) {
+                        sceneDamage.add(window.rootX, window.rootY + rows[i * 2 + 0], content.width, rows[i * 2 + 1] - rows[i * 2 + 0]);
+                    }
+                }
+                else sceneDamage.add(window.rootX, window.rootY, content.width, content.height);
+            }
+        }
+    }
+
+    private void composeScene() {
+        short width = xServer.screenInfo.width;
+        short height = xServer.screenInfo.height;
+        if (sceneTarget == null) {
+            sceneTarget = new RenderTarget();
+            sceneTarget.allocateFramebuffer(width, height);
+            sceneDamage.addAll();
+        }
+
+        // Frames requested only by pointer motion reuse the composed scene and redraw just the cursor overlay
+        if (!sceneContentChanged && sceneDamage.isEmpty()) return;
+
+        try (XLock lock = xServer.lockShared(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+            sceneContentChanged = false;
+            collectSceneDamage();
+            int rectCount = sceneDamage.take(damagedRects);
+            if (rectCount == 0) return;
+
+            GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, savedFramebuffer, 0);
+            GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, savedViewport, 0);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, sceneTarget.getFramebuffer());
+            GLES20.glViewport(0, 0, width, height);
+            GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+
+            // The scene is stored flipped so that it is sampled with the same orientation as the window textures
+            XForm.set(tmpXForm2, 0, height, 1, -1);
+
+            for (int i = 0; i < rectCount; i++) {
+                short x0 = damagedRects[i * 4 + 0];
+                short y0 = damagedRects[i * 4 + 1];
+                short x1 = damagedRects[i * 4 + 2];
+                short y1 = damagedRects[i * 4 + 3];
+                GLES20.glScissor(x0, y0, x1 - x0, y1 - y0);
+                GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+                windowMaterial.use();
+                GLES20.glUniform2f(windowMaterial.getUniformLocation("viewSize"), width, height);
+                quadVertices.bind(windowMaterial.programId);
+                for (RenderableWindow window : renderableWindows) {
+                    Drawable content = window.content;
+                    if (window.rootX >= x1 || window.rootY >= y1 || window.rootX + content.width <= x0 || window.rootY + content.height <= y0) continue;
+                    renderDrawable(content, window.rootX, window.rootY, windowMaterial);
+                }
+                quadVertices.disable();
+            }
+
+            GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, savedFramebuffer[0]);
+            GLES20.glViewport(savedViewport[0], savedViewport[1], savedViewport[2], savedViewport[3]);
+        }
+    }
+
+    private void renderSceneLayer() {
+        windowMaterial.use();
+        GLES20.glUniform2f(windowMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
+        quadVertices.bind(windowMaterial.programId);
+
+        XForm.set(tmpXForm1, 0, 0, xServer.screenInfo.width, xServer.screenInfo.height);
+        XForm.multiply(tmpXForm1, tmpXForm1, tmpXForm2);
+
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, sceneTarget.getTextureId());
+        GLES20.glUniform1i(windowMaterial.getUniformLocation("texture"), 0);
+        GLES20.glUniform1fv(windowMaterial.getUniformLocation("xform"), tmpXForm1.length, tmpXForm1, 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, quadVertices.count());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+
+        quadVertices.disable();
+    }
+
     public void toggleFullscreen() {
         toggleFullscreen = true;
         xServerView.requestRender();
@@ -311,6 +463,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     // Compatibility API used by XServerDisplayActivity (host-side fullscreen forcing).
     public void setForceFullscreenWMClass(String wmClass) {
         this.forceFullscreenWMClass = wmClass;
+        resetViewability();
     }
 
     // Compatibility API used by FrameRating (host-side FPS overlay).
@@ -326,63 +479,166 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         return Drawable.fromBitmap(bitmap);
     }
 
+    /* The render list is only modified by window manager callbacks and setters holding the window manager lock,
+     * the GL thread reads it with the window manager locked shared. */
     private void updateScene() {
-        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-            renderableWindows.clear();
-            collectRenderableWindows(xServer.windowManager.rootWindow, xServer.windowManager.rootWindow.getX(), xServer.windowManager.rootWindow.getY());
+        for (RenderableWindow renderableWindow : renderableWindows) renderableWindow.listed = false;
+        renderableWindows.clear();
+
+        Window rootWindow = xServer.windowManager.rootWindow;
+        for (Window child : rootWindow.getChildren()) {
+            insertRenderableSubtree(child, renderableWindows.size(), rootWindow.getX() + child.getX(), rootWindow.getY() + child.getY());
         }
+        updateRenderableWindowIndices(0);
+        sceneDamage.addAll();
     }
 
-    private void collectRenderableWindows(Window window, int x, int y) {
-        if (!window.attributes.isMapped()) return;
-        if (window != xServer.windowManager.rootWindow) {
+    private void resetViewability() {
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+            for (int i = 0; i < renderableWindowCache.size(); i++) {
+                renderableWindowCache.valueAt(i).viewability = RenderableWindow.VIEWABILITY_UNKNOWN;
+            }
+            updateScene();
+        }
+        xServerView.requestRender();
+    }
+
+    private boolean isViewable(RenderableWindow renderableWindow) {
+        if (renderableWindow.viewability == RenderableWindow.VIEWABILITY_UNKNOWN) {
+            Window window = renderableWindow.window;
             boolean viewable = true;
 
-            if (forceFullscreenWMClass != null) {
+            if (forceFullscreenWMClass != null || unviewableWMClasses != null) {
                 String wmClass = window.getClassName();
                 // If a WM_CLASS is forced fullscreen, only render that window.
-                if (wmClass == null || !wmClass.contains(forceFullscreenWMClass)) {
-                    viewable = false;
-                }
-            }
-
-            if (unviewableWMClasses != null) {
-                String wmClass = window.getClassName();
-                for (String unviewableWMClass : unviewableWMClasses) {
-                    if (wmClass.contains(unviewableWMClass)) {
-                        if (window.attributes.isEnabled()) window.disableAllDescendants();
-                        viewable = false;
-                        break;
+                if (forceFullscreenWMClass != null && (wmClass == null || !wmClass.contains(forceFullscreenWMClass))) viewable = false;
+
+                if (unviewableWMClasses != null && wmClass != null) {
+                    for (String unviewableWMClass : unviewableWMClasses) {
+                        if (wmClass.contains(unviewableWMClass)) {
+                            if (window.attributes.isEnabled()) window.disableAllDescendants();
+                            viewable = false;
+                            break;
+                        }
                     }
                 }
             }
 
-            if (viewable)
-                renderableWindows.add(new RenderableWindow(window.getContent(), x, y));
+            renderableWindow.viewability = viewable ? RenderableWindow.VIEWABILITY_VIEWABLE : RenderableWindow.VIEWABILITY_UNVIEWABLE;
         }
+        return renderableWindow.viewability == RenderableWindow.VIEWABILITY_VIEWABLE;
+    }
 
-        for (Window child : window.getChildren()) {
-            collectRenderableWindows(child, child.getX() + x, child.getY() + y);
+    /* Entries are kept in the preorder of the window tree, so the entries of a subtree are always contiguous.
+     * Every listed entry knows its own position, which is renumbered from the first changed slot after each edit. */
+    private void updateRenderableSubtree(Window window) {
+        if (window == xServer.windowManager.rootWindow) {
+            updateScene();
+            return;
         }
+
+        removeRenderableSubtree(window);
+        if (window.getMapState() == Window.MapState.VIEWABLE) {
+            int index = findInsertIndex(window);
+            if (insertRenderableSubtree(window, index, window.getRootX(), window.getRootY()) > index) updateRenderableWindowIndices(index);
+        }
+    }
+
+    private void updateRenderableWindowIndices(int start) {
+        for (int i = start, size = renderableWindows.size(); i < size; i++) renderableWindows.get(i).index = i;
     }
 
-    private void removeRenderableWindow(Window window) {
-        for (int i = 0; i < renderableWindows.size(); i++) {
-            if (renderableWindows.get(i).content == window.getContent()) {
-                renderableWindows.remove(i);
-                break;
+    private void removeRenderableSubtree(Window window) {
+        int index = -1;
+        int count = 0;
+        ArrayList<Window> stack = tmpWindowStack;
+        stack.add(window);
+        while (!stack.isEmpty()) {
+            Window current = stack.remove(stack.size()-1);
+            RenderableWindow renderableWindow = renderableWindowCache.get(current.id);
+            if (renderableWindow != null && renderableWindow.listed) {
+                if (index == -1) index = renderableWindow.index;
+                renderableWindow.listed = false;
+                sceneDamage.add(renderableWindow.rootX, renderableWindow.rootY, renderableWindow.content.width, renderableWindow.content.height);
+                count++;
             }
+
+            List<Window> children = current.getChildren();
+            for (int i = children.size()-1; i >= 0; i--) stack.add(children.get(i));
+        }
+
+        if (count > 0) {
+            renderableWindows.subList(index, index + count).clear();
+            updateRenderableWindowIndices(index);
         }
     }
 
-    private void updateWindowPosition(Window window) {
-        for (RenderableWindow renderableWindow : renderableWindows) {
-            if (renderableWindow.content == window.getContent()) {
-                renderableWindow.rootX = window.getRootX();
-                renderableWindow.rootY = window.getRootY();
-                break;
+    private int insertRenderableSubtree(Window window, int index, int rootX, int rootY) {
+        if (!window.attributes.isMapped()) return index;
+
+        if (window.isInputOutput()) {
+            RenderableWindow renderableWindow = renderableWindowCache.get(window.id);
+            if (renderableWindow == null) renderableWindowCache.put(window.id, (renderableWindow = new RenderableWindow(window)));
+
+            if (isViewable(renderableWindow)) {
+                Drawable content = window.getContent();
+                renderableWindow.content = content;
+                renderableWindow.rootX = (short)rootX;
+                renderableWindow.rootY = (short)rootY;
+                renderableWindow.listed = true;
+                renderableWindows.add(index++, renderableWindow);
+                sceneDamage.add(rootX, rootY, content.width, content.height);
             }
         }
+
+        for (Window child : window.getChildren()) {
+            index = insertRenderableSubtree(child, index, rootX + child.getX(), rootY + child.getY());
+        }
+        return index;
+    }
+
+    /* Returns the index right after the last entry that precedes the window in preorder. */
+    private int findInsertIndex(Window window) {
+        Window parent = window.getParent();
+        List<Window> siblings = parent.getChildren();
+        for (int i = siblings.indexOf(window)-1; i >= 0; i--) {
+            int index = findSubtreeEnd(siblings.get(i));
+            if (index != -1) return index;
+        }
+
+        if (parent == xServer.windowManager.rootWindow) return 0;
+        RenderableWindow renderableWindow = renderableWindowCache.get(parent.id);
+        if (renderableWindow != null && renderableWindow.listed) return renderableWindow.index + 1;
+        return findInsertIndex(parent);
+    }
+
+    private int findSubtreeEnd(Window window) {
+        if (!window.attributes.isMapped()) return -1;
+        List<Window> children = window.getChildren();
+        for (int i = children.size()-1; i >= 0; i--) {
+            int index = findSubtreeEnd(children.get(i));
+            if (index != -1) return index;
+        }
+
+        RenderableWindow renderableWindow = renderableWindowCache.get(window.id);
+        return renderableWindow != null && renderableWindow.listed ? renderableWindow.index + 1 : -1;
+    }
+
+    private void updateRenderableSubtreePosition(Window window, int rootX, int rootY) {
+        if (!window.attributes.isMapped()) return;
+
+        RenderableWindow renderableWindow = renderableWindowCache.get(window.id);
+        if (renderableWindow != null && renderableWindow.listed) {
+            Drawable content = renderableWindow.content;
+            sceneDamage.add(renderableWindow.rootX, renderableWindow.rootY, content.width, content.height);
+            sceneDamage.add(rootX, rootY, content.width, content.height);
+            renderableWindow.rootX = (short)rootX;
+            renderableWindow.rootY = (short)rootY;
+        }
+
+        for (Window child : window.getChildren()) {
+            updateRenderableSubtreePosition(child, rootX + child.getX(), rootY + child.getY());
+        }
     }
 
     public void setCursorVisible(boolean cursorVisible) {
@@ -432,6 +688,20 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         this.viewportNeedsUpdate = viewportNeedsUpdate;
     }
 
+    public boolean isIncrementalComposition() {
+        return incrementalComposition;
+    }
+
+    public void setIncrementalComposition(boolean incrementalComposition) {
+        this.incrementalComposition = incrementalComposition;
+        sceneDamage.addAll();
+        xServerView.requestRender();
+    }
+
+    public int getLastFrameUploadBytesSaved() {
+        return lastFrameUploadBytesSaved;
+    }
+
     public VertexAttribute getQuadVertices() {
         return quadVertices;
     }
@@ -464,5 +734,6 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     public void setUnviewableWMClasses(String... unviewableWMNames) {
         this.unviewableWMClasses = unviewableWMNames;
+        resetViewability();
     }
 }
@@ -58,9 +58,12 @@ public class GPUImage extends Texture {
     }
 
     @Override
-    public void updateFromDrawable(Drawable drawable) {
+    public int updateFromDrawable(Drawable drawable) {
         if (!isAllocated()) allocateTexture(drawable.width, drawable.height, null);
+        drawable.getDamage().clear();
+        damagedBandCount = -1;
         needsUpdate = false;
+        return 0;
     }
 
     public short getStride() {
@@ -1,15 +1,21 @@
 package com.winlator.renderer;
 
 import com.winlator.xserver.Drawable;
+import com.winlator.xserver.Window;
 
 class RenderableWindow {
-    final Drawable content;
+    static final byte VIEWABILITY_UNKNOWN = 0;
+    static final byte VIEWABILITY_VIEWABLE = 1;
+    static final byte VIEWABILITY_UNVIEWABLE = 2;
+    final Window window;
+    Drawable content;
     short rootX;
     short rootY;
+    boolean listed = false;
+    int index = -1;
+    byte viewability = VIEWABILITY_UNKNOWN;
 
-    public RenderableWindow(Drawable content, int rootX, int rootY) {
-        this.content = content;
-        this.rootX = (short) rootX;
-        this.rootY = (short) rootY;
+    public RenderableWindow(Window window) {
+        this.window = window;
     }
 }
@@ -0,0 +1,69 @@
+package com.winlator.renderer;
+
+class SceneDamage {
+    static final byte MAX_RECTS = 16;
+    private final short width;
+    private final short height;
+    private final short[] rects = new short[MAX_RECTS * 4];
+    private byte rectCount = 0;
+    private boolean full = true;
+
+    SceneDamage(short width, short height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    synchronized void add(int x, int y, int width, int height) {
+        if (full) return;
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        if (rectCount == MAX_RECTS) {
+            for (int i = 0; i < rectCount; i++) {
+                x0 = Math.min(x0, rects[i * 4 + 0]);
+                y0 = Math.min(y0, rects[i * 4 + 1]);
+                x1 = Math.max(x1, rects[i * 4 + 2]);
+                y1 = Math.max(y1, rects[i * 4 + 3]);
+            }
+            rectCount = 0;
+        }
+
+        rects[rectCount * 4 + 0] = (short)x0;
+        rects[rectCount * 4 + 1] = (short)y0;
+        rects[rectCount * 4 + 2] = (short)x1;
+        rects[rectCount * 4 + 3] = (short)y1;
+        rectCount++;
+    }
+
+    synchronized void addAll() {
+        full = true;
+        rectCount = 0;
+    }
+
+    synchronized boolean isEmpty() {
+        return !full && rectCount == 0;
+    }
+
+    /* Copies the damaged rectangles as (x0, y0, x1, y1) tuples into result and clears the damage, returns the rectangle count. */
+    synchronized int take(short[] result) {
+        int count;
+        if (full) {
+            result[0] = 0;
+            result[1] = 0;
+            result[2] = width;
+            result[3] = height;
+            count = 1;
+        }
+        else {
+            count = rectCount;
+            System.arraycopy(rects, 0, result, 0, count * 4);
+        }
+
+        full = false;
+        rectCount = 0;
+        return count;
+    }
+}
@@ -4,12 +4,15 @@ import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
 import com.winlator.XrActivity;
+import com.winlator.xserver.DamageRegion;
 import com.winlator.xserver.Drawable;
 
 import java.nio.ByteBuffer;
 
 public class Texture {
     protected int textureId = 0;
+    private short width;
+    private short height;
     private int wrapS = GLES20.GL_CLAMP_TO_EDGE;
     private int wrapT = GLES20.GL_CLAMP_TO_EDGE;
     private int magFilter = GLES20.GL_LINEAR;
@@ -17,6 +20,10 @@ public class Texture {
     protected int format = GLES11Ext.GL_BGRA;
     protected boolean needsUpdate = true;
     protected byte unpackAlignment = 4; // or add a getter method
+    private final short[] damagedRows = new short[DamageRegion.MAX_BANDS * 2];
+    protected int damagedBandCount = 0;
+    private ByteBuffer rowData;
+    private ByteBuffer rowDataSource;
 
 
     public void allocateTexture(short width, short height, ByteBuffer data) {
@@ -31,6 +38,8 @@ public class Texture {
         if (data != null) {
             GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, data);
         }
+        this.width = width;
+        this.height = height;
 
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrapS);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrapT);
@@ -88,19 +97,71 @@ public class Texture {
         this.needsUpdate = needsUpdate;
     }
 
-    public void updateFromDrawable(Drawable drawable) {
+    /* Uploads the damaged rows of the drawable and returns the number of bytes saved compared to a full upload. */
+    public int updateFromDrawable(Drawable drawable) {
         ByteBuffer data = drawable.getData();
-        if (data == null) return;
+        if (data == null) return 0;
 
+        DamageRegion damage = drawable.getDamage();
         if (!isAllocated()) {
+            damagedBandCount = -1;
+            damage.clear();
             allocateTexture(drawable.width, drawable.height, data);
+            needsUpdate = false;
+            return 0;
         }
-        else if (needsUpdate) {
+        else if (width != drawable.width || height != drawable.height) {
+            /* The drawable was resized, respecify the storage of the same texture object */
+            damagedBandCount = -1;
+            damage.clear();
+            width = drawable.width;
+            height = drawable.height;
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0, format, GLES20.GL_UNSIGNED_BYTE, data);
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
             needsUpdate = false;
+            return 0;
         }
+        else if (needsUpdate) {
+            int rowSize = drawable.width * 4;
+            int totalSize = rowSize * drawable.height;
+            int uploadedSize = 0;
+            needsUpdate = false;
+            int bandCount = damage.takeBands(damagedRows);
+            damagedBandCount = bandCount > 0 ? bandCount : -1;
+
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            if (bandCount > 0) {
+                if (rowDataSource != data) {
+                    rowDataSource = data;
+                    rowData = data.duplicate();
+                }
+                for (int i = 0; i < bandCount; i++) {
+                    short startY = damagedRows[i * 2 + 0];
+                    short endY = damagedRows[i * 2 + 1];
+                    rowData.position(startY * rowSize);
+                    GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, startY, drawable.width, endY - startY, format, GLES20.GL_UNSIGNED_BYTE, rowData);
+                    uploadedSize += (endY - startY) * rowSize;
+                }
+            }
+            else {
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                uploadedSize = totalSize;
+            }
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            return totalSize - uploadedSize;
+        }
+        return 0;
+    }
+
+    /* Returns the number of row bands in getDamagedRows() refreshed by the last upload, or -1 when the whole texture was refreshed. */
+    public int getDamagedBandCount() {
+        return damagedBandCount;
+    }
+
+    public short[] getDamagedRows() {
+        return damagedRows;
     }
 
     public boolean isAllocated() {
@@ -0,0 +1,75 @@
+package com.winlator.xconnector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+/* Direct buffers shared by all connections, grouped in power of two size classes from 4 KB up to 16 MB. */
+public class BufferPool {
+    private static final byte MIN_SIZE_CLASS = 12;
+    private static final byte MAX_SIZE_CLASS = 24;
+    private static final byte MAX_BUFFERS_PER_SIZE_CLASS = 4;
+    private static final int MAX_POOLED_BYTES = 32 * 1024 * 1024;
+    private static final BufferPool instance = new BufferPool();
+    private final ArrayDeque<ByteBuffer>[] freeBuffers = new ArrayDeque[MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1];
+    private int pooledBytes = 0;
+    private int allocatedBytes = 0;
+
+    private BufferPool() {
+        for (int i = 0; i < freeBuffers.length; i++) freeBuffers[i] = new ArrayDeque<>();
+    }
+
+    public static BufferPool getInstance() {
+        return instance;
+    }
+
+    private static int getSizeClass(int capacity) {
+        return Math.max(MIN_SIZE_CLASS, 32 - Integer.numberOfLeadingZeros(capacity - 1));
+    }
+
+    public static int roundCapacity(int capacity) {
+        int sizeClass = getSizeClass(capacity);
+        return sizeClass <= MAX_SIZE_CLASS ? 1 << sizeClass : capacity;
+    }
+
+    public synchronized ByteBuffer acquire(int minCapacity) {
+        int sizeClass = getSizeClass(minCapacity);
+        if (sizeClass <= MAX_SIZE_CLASS) {
+            ByteBuffer buffer = freeBuffers[sizeClass - MIN_SIZE_CLASS].poll();
+            if (buffer != null) {
+                pooledBytes -= buffer.capacity();
+                buffer.clear();
+                return buffer.order(ByteOrder.BIG_ENDIAN);
+            }
+        }
+
+        int capacity = roundCapacity(minCapacity);
+        allocatedBytes += capacity;
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        int sizeClass = getSizeClass(capacity);
+        boolean pooled = sizeClass <= MAX_SIZE_CLASS && capacity == 1 << sizeClass;
+
+        if (pooled) {
+            ArrayDeque<ByteBuffer> buffers = freeBuffers[sizeClass - MIN_SIZE_CLASS];
+            if (buffers.size() < MAX_BUFFERS_PER_SIZE_CLASS && pooledBytes + capacity <= MAX_POOLED_BYTES) {
+                buffers.add(buffer);
+                pooledBytes += capacity;
+                return;
+            }
+        }
+
+        allocatedBytes -= capacity;
+    }
+
+    public synchronized int getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized int getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
@@ -27,6 +27,11 @@ public class Client {
         outputStream.setByteOrder(ByteOrder.LITTLE_ENDIAN);
     }
 
+    protected void releaseIOStreams() {
+        if (inputStream != null) inputStream.release();
+        if (outputStream != null) outputStream.release();
+    }
+
     public XInputStream getInputStream() {
         return inputStream;
     }
@@ -54,6 +54,11 @@ public class ClientSocket {
         else Log.d("ClientSocket", "Failed to write data.");
     }
 
+    public void writev(ByteBuffer[] buffers, int[] offsets, int[] lengths, int count) {
+        int bytesWritten = writev(fd, buffers, offsets, lengths, count);
+        if (bytesWritten < 0) Log.d("ClientSocket", "Failed to write data.");
+    }
+
     public int recvAncillaryMsg(ByteBuffer data) throws IOException {
         int position = data.position();
         int bytesRead = recvAncillaryMsg(fd, data, position, data.remaining());
@@ -79,6 +84,8 @@ public class ClientSocket {
 
     private native int write(int fd, ByteBuffer data, int length);
 
+    private native int writev(int fd, ByteBuffer[] buffers, int[] offsets, int[] lengths, int count);
+
     private native int recvAncillaryMsg(int clientFd, ByteBuffer data, int offset, int length);
 
     private native int sendAncillaryMsg(int clientFd, ByteBuffer data, int length, int ancillaryFd);
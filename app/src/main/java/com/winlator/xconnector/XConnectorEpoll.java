@@ -105,11 +105,18 @@ public class XConnectorEpoll implements Runnable {
         if (client == null) return;
 
         XInputStream inputStream = client.getInputStream();
+        XOutputStream outputStream = client.getOutputStream();
         try {
             if (inputStream != null) {
                 if (inputStream.readMoreData(canReceiveAncillaryMessages) > 0) {
                     int activePosition = 0;
-                    while (running && requestHandler.handleRequest(client)) activePosition = inputStream.getActivePosition();
+                    outputStream.beginBatch();
+                    try {
+                        while (running && requestHandler.handleRequest(client)) activePosition = inputStream.getActivePosition();
+                    }
+                    finally {
+                        outputStream.endBatch();
+                    }
                     inputStream.setActivePosition(activePosition);
                 }
                 else killConnection(client);
@@ -146,6 +153,7 @@ public class XConnectorEpoll implements Runnable {
         else removeFdFromEpoll(epollFd, client.clientSocket.fd);
         closeFd(client.clientSocket.fd);
         connectedClients.remove(client.clientSocket.fd);
+        client.releaseIOStreams();
     }
 
     private void shutdown() {
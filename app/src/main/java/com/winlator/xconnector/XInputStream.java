@@ -7,9 +7,13 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class XInputStream {
+    private static final short SHRINK_AFTER_IDLE_READS = 256;
     private ByteBuffer activeBuffer;
     private ByteBuffer buffer;
     public final ClientSocket clientSocket;
+    private final int initialCapacity;
+    private int highWaterMark = 0;
+    private short idleReadCount = 0;
 
     public XInputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -17,7 +21,8 @@ public class XInputStream {
 
     public XInputStream(ClientSocket clientSocket, int initialCapacity) {
         this.clientSocket = clientSocket;
-        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+        this.initialCapacity = BufferPool.roundCapacity(initialCapacity);
+        this.buffer = BufferPool.getInstance().acquire(initialCapacity);
     }
 
     public int readMoreData(boolean canReceiveAncillaryMessages) throws IOException {
@@ -33,11 +38,16 @@ public class XInputStream {
             activeBuffer = null;
         }
 
-        growInputBufferIfNecessary();
+        if (buffer.position() == 0) {
+            shrinkInputBufferIfIdle();
+        }
+        else growInputBufferIfNecessary();
         int bytesRead = canReceiveAncillaryMessages ? clientSocket.recvAncillaryMsg(buffer) : clientSocket.read(buffer);
 
         if (bytesRead > 0) {
             int position = buffer.position();
+            if (position > highWaterMark) highWaterMark = position;
+            if (position > buffer.capacity() / 4) idleReadCount = 0;
             buffer.flip();
             activeBuffer = buffer.slice().order(buffer.order());
             buffer.limit(buffer.capacity()).position(position);
@@ -51,13 +61,39 @@ public class XInputStream {
 
     private void growInputBufferIfNecessary() {
         if (buffer.position() == buffer.capacity()) {
-            ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).order(buffer.order());
-            buffer.rewind();
+            ByteBuffer newBuffer = BufferPool.getInstance().acquire(buffer.capacity() * 2).order(buffer.order());
+            buffer.flip();
             newBuffer.put(buffer);
+            BufferPool.getInstance().release(buffer);
             buffer = newBuffer;
         }
     }
 
+    /* Gives an enlarged buffer back to the pool once it has stayed mostly unused for a while. */
+    private void shrinkInputBufferIfIdle() {
+        if (buffer.capacity() <= initialCapacity || ++idleReadCount < SHRINK_AFTER_IDLE_READS) return;
+        ByteBuffer newBuffer = BufferPool.getInstance().acquire(initialCapacity).order(buffer.order());
+        BufferPool.getInstance().release(buffer);
+        buffer = newBuffer;
+        idleReadCount = 0;
+    }
+
+    public void release() {
+        if (buffer != null) {
+            BufferPool.getInstance().release(buffer);
+            buffer = null;
+            activeBuffer = null;
+        }
+    }
+
+    public int getCapacity() {
+        return buffer != null ? buffer.capacity() : 0;
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
     public void setByteOrder(ByteOrder byteOrder) {
         buffer.order(byteOrder);
         if (activeBuffer != null) activeBuffer.order(byteOrder);
@@ -5,14 +5,33 @@ import com.winlator.xserver.XServer;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class XOutputStream {
     private static final byte[] ZERO = new byte[64];
+    private static final short SHRINK_AFTER_IDLE_FLUSHES = 256;
+    private static final int ZERO_COPY_THRESHOLD = 65536;
+    private static final byte MAX_SEGMENTS = 32;
     public ByteBuffer buffer;
     public final ClientSocket clientSocket;
     private final ReentrantLock lock = new ReentrantLock();
     private int ancillaryFd = -1;
+    private final int initialCapacity;
+    private int highWaterMark = 0;
+    private short idleFlushCount = 0;
+    private boolean batching = false;
+    private OnEndBatchListener onEndBatchListener;
+    private final OutputStreamLock streamLock = new OutputStreamLock();
+    private final ByteBuffer[] segmentBuffers = new ByteBuffer[MAX_SEGMENTS];
+    private final int[] segmentOffsets = new int[MAX_SEGMENTS];
+    private final int[] segmentLengths = new int[MAX_SEGMENTS];
+    private byte segmentCount = 0;
+    private int stagingStart = 0;
+
+    public interface OnEndBatchListener {
+        void onEndBatch() throws IOException;
+    }
 
     public XOutputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -20,7 +39,8 @@ public class XOutputStream {
 
     public XOutputStream(ClientSocket clientSocket, int initialCapacity) {
         this.clientSocket = clientSocket;
-        buffer = ByteBuffer.allocateDirect(initialCapacity);
+        this.initialCapacity = BufferPool.roundCapacity(initialCapacity);
+        buffer = BufferPool.getInstance().acquire(initialCapacity);
     }
 
     public void setByteOrder(ByteOrder byteOrder) {
@@ -68,51 +88,169 @@ public class XOutputStream {
         buffer.put(data, offset, length);
     }
 
+    /* Large direct buffers are queued as is and sent with writev when the stream lock is released, even while batching,
+     * so they only have to stay unmodified for as long as the caller holds the lock. */
     public void write(ByteBuffer data) {
-        ensureSpaceIsAvailable(data.remaining());
+        int length = data.remaining();
+        if (length >= ZERO_COPY_THRESHOLD && data.isDirect() && segmentCount <= MAX_SEGMENTS - 2) {
+            addStagingSegment();
+            addSegment(data, data.position(), length);
+            data.position(data.limit());
+            return;
+        }
+
+        ensureSpaceIsAvailable(length);
         buffer.put(data);
     }
 
+    /* Reserves length bytes to be filled in place by the caller, the returned buffer is only valid until the next write. */
+    public ByteBuffer reserve(int length) {
+        ensureSpaceIsAvailable(length);
+        int position = buffer.position();
+        ByteBuffer data = buffer.slice();
+        data.limit(length);
+        buffer.position(position + length);
+        return data;
+    }
+
     public void writePad(int length) {
         write(ZERO, 0, length);
     }
 
+    private void addSegment(ByteBuffer data, int offset, int length) {
+        segmentBuffers[segmentCount] = data;
+        segmentOffsets[segmentCount] = offset;
+        segmentLengths[segmentCount] = length;
+        segmentCount++;
+    }
+
+    private void addStagingSegment() {
+        int position = buffer.position();
+        if (position > stagingStart) {
+            addSegment(buffer, stagingStart, position - stagingStart);
+            stagingStart = position;
+        }
+    }
+
     private void flush() throws IOException {
-        if (buffer.position() != 0) {
+        int position = buffer.position();
+        if (position == 0 && segmentCount == 0) return;
+        if (position > highWaterMark) highWaterMark = position;
+
+        if (segmentCount > 0) {
+            if (ancillaryFd == -1) addStagingSegment();
+            clientSocket.writev(segmentBuffers, segmentOffsets, segmentLengths, segmentCount);
+            Arrays.fill(segmentBuffers, 0, segmentCount, null);
+            segmentCount = 0;
+        }
+
+        if (position > stagingStart) {
             buffer.flip();
+            ByteBuffer data = buffer;
+            if (stagingStart > 0) {
+                buffer.position(stagingStart);
+                data = buffer.slice();
+            }
 
             if (ancillaryFd != -1) {
-                clientSocket.sendAncillaryMsg(buffer, ancillaryFd);
+                clientSocket.sendAncillaryMsg(data, ancillaryFd);
                 ancillaryFd = -1;
             }
-            else clientSocket.write(buffer);
+            else clientSocket.write(data);
+        }
+
+        buffer.clear();
+        stagingStart = 0;
+        shrinkOutputBufferIfIdle(position);
+    }
+
+    /* Replies and events written until endBatch() are kept in the buffer and sent with a single write. */
+    public void beginBatch() {
+        lock.lock();
+        batching = true;
+        lock.unlock();
+    }
 
-            buffer.clear();
+    public void endBatch() throws IOException {
+        lock.lock();
+        try {
+            batching = false;
+            if (onEndBatchListener != null) onEndBatchListener.onEndBatch();
+            flush();
         }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /* Gives an enlarged buffer back to the pool once it has stayed mostly unused for a while. */
+    private void shrinkOutputBufferIfIdle(int flushedLength) {
+        if (buffer.capacity() <= initialCapacity) return;
+        if (flushedLength > buffer.capacity() / 4) {
+            idleFlushCount = 0;
+            return;
+        }
+
+        if (++idleFlushCount < SHRINK_AFTER_IDLE_FLUSHES) return;
+        ByteBuffer newBuffer = BufferPool.getInstance().acquire(initialCapacity).order(buffer.order());
+        BufferPool.getInstance().release(buffer);
+        buffer = newBuffer;
+        idleFlushCount = 0;
+    }
+
+    /* Only valid with the stream locked. */
+    public boolean isBatching() {
+        return batching;
     }
 
+    /* Called with the stream locked right before a batch is sent, to write what was held back while it was open. */
+    public void setOnEndBatchListener(OnEndBatchListener onEndBatchListener) {
+        this.onEndBatchListener = onEndBatchListener;
+    }
+
+    /* The lock object holds no per-acquisition state, so a single instance is handed out and nothing is allocated per write. */
     public XStreamLock lock() {
-        return new OutputStreamLock();
+        lock.lock();
+        return streamLock;
     }
 
     private void ensureSpaceIsAvailable(int length) {
         int position = buffer.position();
         if ((buffer.capacity() - position) >= length) return;
-        ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() + length).order(buffer.order());
-        buffer.rewind();
-        newBuffer.put(buffer).position(position);
+        ByteBuffer newBuffer = BufferPool.getInstance().acquire(Math.max(buffer.capacity() * 2, position + length)).order(buffer.order());
+        buffer.flip();
+        newBuffer.put(buffer);
+        for (int i = 0; i < segmentCount; i++) {
+            if (segmentBuffers[i] == buffer) segmentBuffers[i] = newBuffer;
+        }
+        BufferPool.getInstance().release(buffer);
         buffer = newBuffer;
     }
 
-    private class OutputStreamLock implements XStreamLock {
-        public OutputStreamLock() {
-            lock.lock();
+    public void release() {
+        lock.lock();
+        try {
+            BufferPool.getInstance().release(buffer);
+            buffer = ByteBuffer.allocateDirect(0).order(buffer.order());
+        }
+        finally {
+            lock.unlock();
         }
+    }
 
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    private class OutputStreamLock implements XStreamLock {
         @Override
         public void close() throws IOException {
             try {
-                flush();
+                if (!batching || ancillaryFd != -1 || segmentCount > 0) flush();
             }
             finally {
                 lock.unlock();
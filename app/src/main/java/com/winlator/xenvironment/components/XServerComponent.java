@@ -1,14 +1,18 @@
 package com.winlator.xenvironment.components;
 
+import android.util.Log;
+
 import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xserver.XClientConnectionHandler;
 import com.winlator.xserver.XClientRequestHandler;
+import com.winlator.xserver.PixelBufferPool;
 import com.winlator.xserver.XServer;
 
 public class XServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
+    private final XClientRequestHandler requestHandler = new XClientRequestHandler();
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
 
@@ -20,7 +24,7 @@ public class XServerComponent extends EnvironmentComponent {
     @Override
     public void start() {
         if (connector != null) return;
-        connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
+        connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), requestHandler);
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
         connector.start();
@@ -31,10 +35,18 @@ public class XServerComponent extends EnvironmentComponent {
         if (connector != null) {
             connector.stop();
             connector = null;
+            PixelBufferPool pixelBufferPool = xServer.drawableManager.getPixelBufferPool();
+            Log.i("XServerComponent", "Pixel buffer pool: hits="+pixelBufferPool.getHitCount()+" misses="+pixelBufferPool.getMissCount()+" retained="+pixelBufferPool.getRetainedBytes());
+            xServer.release();
+            Log.i("XServerComponent", "Request profile:\n"+dumpRequestProfile());
         }
     }
 
     public XServer getXServer() {
         return xServer;
     }
+
+    public String dumpRequestProfile() {
+        return requestHandler.dumpRequestProfile(xServer);
+    }
 }
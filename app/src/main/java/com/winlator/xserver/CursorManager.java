@@ -1,11 +1,9 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
-
 import java.nio.IntBuffer;
 
 public class CursorManager extends XResourceManager {
-    private final SparseArray<Cursor> cursors = new SparseArray<>();
+    private final XResourceMap<Cursor> cursors = new XResourceMap<>();
     private final DrawableManager drawableManager;
 
     public CursorManager(DrawableManager drawableManager) {
@@ -17,14 +15,21 @@ public class CursorManager extends XResourceManager {
     }
 
     public Cursor createCursor(int id, short x, short y, Pixmap sourcePixmap, Pixmap maskPixmap) {
-        if (cursors.indexOfKey(id) >= 0) return null;
+        if (cursors.containsKey(id)) return null;
         Drawable drawable = drawableManager.createDrawable(0, sourcePixmap.drawable.width, sourcePixmap.drawable.height, sourcePixmap.drawable.visual);
-        Cursor cursor = new Cursor(id, x, y, drawable, sourcePixmap.drawable, maskPixmap != null ? maskPixmap.drawable : null);
+        Cursor cursor = new Cursor(id, x, y, drawable, copyDrawable(sourcePixmap.drawable), maskPixmap != null ? copyDrawable(maskPixmap.drawable) : null);
         cursors.put(id, cursor);
         triggerOnCreateResourceListener(cursor);
         return cursor;
     }
 
+    /* The pixmaps are usually freed right after the cursor is created and their backing stores go back to the pool, RecolorCursor needs its own copy. */
+    private Drawable copyDrawable(Drawable drawable) {
+        Drawable copy = drawableManager.createDrawable(0, drawable.width, drawable.height, drawable.visual);
+        copy.copyArea((short)0, (short)0, (short)0, (short)0, drawable.width, drawable.height, drawable);
+        return copy;
+    }
+
     public void freeCursor(int id) {
         triggerOnFreeResourceListener(cursors.get(id));
         cursors.remove(id);
@@ -0,0 +1,84 @@
+package com.winlator.xserver;
+
+public class DamageRegion {
+    public static final byte MAX_BANDS = 8;
+    private final short height;
+    private final short[] bandStart = new short[MAX_BANDS];
+    private final short[] bandEnd = new short[MAX_BANDS];
+    private byte bandCount = 0;
+
+    public DamageRegion(short height) {
+        this.height = height;
+    }
+
+    public synchronized void add(int y, int height) {
+        int start = Math.max(y, 0);
+        int end = Math.min(y + height, this.height);
+        if (start >= end) return;
+
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < bandCount; i++) {
+                if (start <= bandEnd[i] && end >= bandStart[i]) {
+                    start = Math.min(start, bandStart[i]);
+                    end = Math.max(end, bandEnd[i]);
+                    removeBand(i);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        while (merged);
+
+        if (bandCount == MAX_BANDS) {
+            int nearest = 0;
+            int minGap = Integer.MAX_VALUE;
+            for (int i = 0; i < bandCount; i++) {
+                int gap = bandStart[i] > end ? bandStart[i] - end : start - bandEnd[i];
+                if (gap < minGap) {
+                    minGap = gap;
+                    nearest = i;
+                }
+            }
+            start = Math.min(start, bandStart[nearest]);
+            end = Math.max(end, bandEnd[nearest]);
+            removeBand(nearest);
+        }
+
+        bandStart[bandCount] = (short)start;
+        bandEnd[bandCount] = (short)end;
+        bandCount++;
+    }
+
+    public synchronized void addAll() {
+        bandStart[0] = 0;
+        bandEnd[0] = height;
+        bandCount = 1;
+    }
+
+    private void removeBand(int index) {
+        bandCount--;
+        bandStart[index] = bandStart[bandCount];
+        bandEnd[index] = bandEnd[bandCount];
+    }
+
+    public synchronized boolean isEmpty() {
+        return bandCount == 0;
+    }
+
+    public synchronized void clear() {
+        bandCount = 0;
+    }
+
+    /* Copies the dirty row bands as [start, end) pairs into rows and clears the region, returns the band count. */
+    public synchronized int takeBands(short[] rows) {
+        int count = bandCount;
+        for (int i = 0; i < count; i++) {
+            rows[i * 2 + 0] = bandStart[i];
+            rows[i * 2 + 1] = bandEnd[i];
+        }
+        bandCount = 0;
+        return count;
+    }
+}
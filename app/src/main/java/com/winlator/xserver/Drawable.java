@@ -16,8 +16,14 @@ public class Drawable extends XResource {
     public final Visual visual;
     private Texture texture = new Texture();
     private ByteBuffer data;
+    private ByteBuffer backingStore;
+    private boolean dataInBackingStore = false;
+    private final DamageRegion damage;
     private Runnable onDrawListener;
     private Callback<Drawable> onDestroyListener;
+    private Drawable flipSource;
+    private ByteBuffer unflippedData;
+    private Texture unflippedTexture;
     public final Object renderLock = new Object();
 
     static {
@@ -29,12 +35,28 @@ public class Drawable extends XResource {
         this.width = (short)width;
         this.height = (short)height;
         this.visual = visual;
+        this.damage = new DamageRegion(this.height);
         this.data = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
         if (this.data == null) {
             throw new IllegalStateException("Drawable.data initialized as null!");
         }
     }
 
+    /* Uses the first width * height * 4 bytes of a pooled buffer, which may be larger, as pixel data. */
+    public Drawable(int id, int width, int height, Visual visual, ByteBuffer backingStore) {
+        super(id);
+        this.width = (short)width;
+        this.height = (short)height;
+        this.visual = visual;
+        this.damage = new DamageRegion(this.height);
+        this.backingStore = backingStore;
+        backingStore.clear();
+        backingStore.limit(width * height * 4);
+        this.data = backingStore.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.dataInBackingStore = true;
+        backingStore.clear();
+    }
+
     public static Drawable fromBitmap(Bitmap bitmap) {
         Drawable drawable = new Drawable(0, bitmap.getWidth(), bitmap.getHeight(), null);
         fromBitmap(bitmap, drawable.data);
@@ -46,10 +68,27 @@ public class Drawable extends XResource {
     }
 
     public void setTexture(Texture texture) {
-        if (texture instanceof GPUImage) data = ((GPUImage)texture).getVirtualData();
+        if (texture instanceof GPUImage) {
+            data = ((GPUImage)texture).getVirtualData();
+            dataInBackingStore = false;
+        }
         this.texture = texture;
     }
 
+    public DamageRegion getDamage() {
+        return damage;
+    }
+
+    public boolean isDataInBackingStore() {
+        return dataInBackingStore;
+    }
+
+    public ByteBuffer releaseBackingStore() {
+        ByteBuffer backingStore = this.backingStore;
+        this.backingStore = null;
+        return backingStore;
+    }
+
     public ByteBuffer getData() {
         return data;
     }
@@ -59,6 +98,50 @@ public class Drawable extends XResource {
             throw new IllegalArgumentException("Attempting to set Drawable.data to null!");
         }
         this.data = data;
+        dataInBackingStore = false;
+        damage.addAll();
+    }
+
+    public Drawable getFlipSource() {
+        return flipSource;
+    }
+
+    /* Shows and draws into the pixels and the texture of a drawable of the same size instead of its own until unflipped,
+     * the way a page flip makes a pixmap the storage of a window. */
+    public void flip(Drawable source) {
+        if (flipSource == null) {
+            unflippedData = data;
+            unflippedTexture = texture;
+        }
+
+        flipSource = source;
+        data = source.data;
+        texture = source.texture;
+        damage.addAll();
+        texture.setNeedsUpdate(true);
+        if (onDrawListener != null) onDrawListener.run();
+    }
+
+    /* Goes back to the own pixels and texture, copying the pixels of the flip source over them when keepContents is set. */
+    public Drawable unflip(boolean keepContents) {
+        Drawable source = flipSource;
+        if (source == null) return null;
+
+        data = unflippedData;
+        texture = unflippedTexture;
+        flipSource = null;
+        unflippedData = null;
+        unflippedTexture = null;
+
+        if (keepContents) {
+            copyArea((short)0, (short)0, (short)0, (short)0, (short)Math.min(width, source.width), (short)Math.min(height, source.height), source);
+        }
+        else {
+            damage.addAll();
+            texture.setNeedsUpdate(true);
+            if (onDrawListener != null) onDrawListener.run();
+        }
+        return source;
     }
 
     private short getStride() {
@@ -84,6 +167,7 @@ public class Drawable extends XResource {
     public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
         if (depth == 1) {
             drawBitmap(width, height, data, this.data);
+            damage.addAll();
         }
         else if (depth == 24 || depth == 32) {
             dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
@@ -92,6 +176,7 @@ public class Drawable extends XResource {
             if ((dstY + height) > this.height) height = (short)((this.height - dstY));
 
             copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+            damage.add(dstY, height);
         }
 
         this.data.rewind();
@@ -101,19 +186,28 @@ public class Drawable extends XResource {
         if (onDrawListener != null) onDrawListener.run();
     }
 
-    public ByteBuffer getImage(short x, short y, short width, short height) {
-        ByteBuffer dstData = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
-
-        x = (short)Mathf.clamp(x, 0, this.width-1);
-        y = (short)Mathf.clamp(y, 0, this.height-1);
-        if ((x + width) > this.width) width = (short)(this.width - x);
-        if ((y + height) > this.height) height = (short)(this.height - y);
+    /* Copies the area into dstData with rows of width pixels, the part of the area outside of the drawable is zeroed. */
+    public void getImage(short x, short y, short width, short height, ByteBuffer dstData) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+        if (x0 != x || y0 != y || x1 != x + width || y1 != y + height) PixelBufferPool.clear(dstData, width * height * 4);
+        if (x0 < x1 && y0 < y1) {
+            copyArea((short)x0, (short)y0, (short)(x0 - x), (short)(y0 - y), (short)(x1 - x0), (short)(y1 - y0), this.getStride(), width, this.data, dstData);
+        }
 
         this.data.rewind();
-        dstData.rewind();
-        return dstData;
+    }
+
+    /* The given full width rows as a view of the drawable data, or null when they are not stored contiguously. */
+    public ByteBuffer getRows(short y, short height) {
+        if (y < 0 || y + height > this.height || getStride() != width) return null;
+        ByteBuffer rows = data.duplicate();
+        rows.limit((y + height) * width * 4);
+        rows.position(y * width * 4);
+        return rows.slice();
     }
 
     public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, Drawable drawable) {
@@ -134,6 +228,7 @@ public class Drawable extends XResource {
         this.data.rewind();
         drawable.data.rewind();
 
+        damage.add(dstY, height);
         texture.setNeedsUpdate(true);
         if (onDrawListener != null) onDrawListener.run();
     }
@@ -151,6 +246,7 @@ public class Drawable extends XResource {
         fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
         this.data.rewind();
 
+        damage.add(y, height);
         texture.setNeedsUpdate(true);
         if (onDrawListener != null) onDrawListener.run();
     }
@@ -171,6 +267,29 @@ public class Drawable extends XResource {
 
         this.data.rewind();
 
+        damage.add(Math.min(y0, y1), Math.abs(y1 - y0) + lineWidth);
+        texture.setNeedsUpdate(true);
+        if (onDrawListener != null) onDrawListener.run();
+    }
+
+    /* Fills count rectangles given as (x, y, width, height) shorts in the byte order of the buffer, with a single damage and notification. */
+    public void fillRects(ByteBuffer rects, int count, int color) {
+        int damagedRows = fillRects(rects, count, rects.order() == ByteOrder.BIG_ENDIAN, color, width, height, getStride(), this.data);
+        this.data.rewind();
+        onBatchDrawn(damagedRows);
+    }
+
+    /* Draws a polyline through count (x, y) points given as shorts in the byte order of the buffer, relative points are offsets from the previous one. */
+    public void drawLines(ByteBuffer points, int count, boolean relative, int color, int lineWidth) {
+        int damagedRows = drawLines(points, count, points.order() == ByteOrder.BIG_ENDIAN, relative, color, (short)lineWidth, width, height, getStride(), this.data);
+        this.data.rewind();
+        onBatchDrawn(damagedRows);
+    }
+
+    private void onBatchDrawn(int damagedRows) {
+        if (damagedRows == -1) return;
+        int startY = damagedRows >>> 16;
+        damage.add(startY, (damagedRows & 0xffff) - startY);
         texture.setNeedsUpdate(true);
         if (onDrawListener != null) onDrawListener.run();
     }
@@ -179,6 +298,7 @@ public class Drawable extends XResource {
         drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
         this.data.rewind();
 
+        damage.addAll();
         texture.setNeedsUpdate(true);
         if (onDrawListener != null) onDrawListener.run();
     }
@@ -195,7 +315,13 @@ public class Drawable extends XResource {
 
     private static native void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data);
 
+    private static native int fillRects(ByteBuffer rects, int count, boolean bigEndian, int color, short width, short height, short stride, ByteBuffer data);
+
+    private static native int drawLines(ByteBuffer points, int count, boolean bigEndian, boolean relative, int color, short lineWidth, short width, short height, short stride, ByteBuffer data);
+
     private static native void fromBitmap(Bitmap bitmap, ByteBuffer data);
+
+    static native void resizeData(ByteBuffer data, short oldWidth, short oldHeight, short newWidth, short newHeight);
 }
 
 //package com.winlator.xserver;
@@ -1,13 +1,15 @@
 package com.winlator.xserver;
 
-import android.util.SparseArray;
-
 import com.winlator.core.Callback;
+import com.winlator.renderer.GPUImage;
 import com.winlator.renderer.Texture;
 
+import java.nio.ByteBuffer;
+
 public class DrawableManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
     private final XServer xServer;
-    private final SparseArray<Drawable> drawables = new SparseArray<>();
+    private final XResourceMap<Drawable> drawables = new XResourceMap<>();
+    private final PixelBufferPool pixelBufferPool = new PixelBufferPool();
 
     public DrawableManager(XServer xServer) {
         this.xServer = xServer;
@@ -35,8 +37,8 @@ public class DrawableManager extends XResourceManager implements XResourceManage
             }
             return drawable;
         }
-        if (drawables.indexOfKey(id) >= 0) return null;
-        Drawable drawable = new Drawable(id, width, height, visual);
+        if (drawables.containsKey(id)) return null;
+        Drawable drawable = new Drawable(id, width, height, visual, pixelBufferPool.acquire(width * height * 4));
         if (drawable.getData() == null) {
             throw new IllegalStateException("Drawable with id " + id + " has null data at creation.");
         }
@@ -53,6 +55,10 @@ public class DrawableManager extends XResourceManager implements XResourceManage
             throw new IllegalStateException("Drawable with id " + id + " has null data during removal.");
         }
 
+        synchronized (drawable.renderLock) {
+            drawable.unflip(false);
+        }
+
         final Texture texture = drawable.getTexture();
         if (texture != null) xServer.getRenderer().xServerView.queueEvent(texture::destroy);
 
@@ -61,6 +67,51 @@ public class DrawableManager extends XResourceManager implements XResourceManage
 
         drawable.setOnDrawListener(null);
         drawables.remove(id);
+
+        synchronized (drawable.renderLock) {
+            ByteBuffer backingStore = drawable.releaseBackingStore();
+            if (backingStore != null) pixelBufferPool.release(backingStore);
+        }
+    }
+
+    /* Returns a drawable of the new size with the same id that keeps the overlapping pixels, the backing store when it is large enough
+     * and the texture of the old one. Drawables backed by shared memory or hardware buffers are recreated instead. */
+    public Drawable resizeDrawable(Drawable drawable, short width, short height) {
+        synchronized (drawable.renderLock) {
+            drawable.unflip(true);
+        }
+
+        Texture texture = drawable.getTexture();
+        if (!drawable.isDataInBackingStore() || texture == null || texture instanceof GPUImage || drawable.getOnDestroyListener() != null) {
+            removeDrawable(drawable.id);
+            return createDrawable(drawable.id, width, height, drawable.visual);
+        }
+
+        Drawable newDrawable;
+        synchronized (drawable.renderLock) {
+            ByteBuffer backingStore = drawable.releaseBackingStore();
+            int size = width * height * 4;
+            if (size <= backingStore.capacity()) {
+                Drawable.resizeData(backingStore, drawable.width, drawable.height, width, height);
+                newDrawable = new Drawable(drawable.id, width, height, drawable.visual, backingStore);
+            }
+            else {
+                newDrawable = new Drawable(drawable.id, width, height, drawable.visual, pixelBufferPool.acquire(size));
+                newDrawable.copyArea((short)0, (short)0, (short)0, (short)0, (short)Math.min(width, drawable.width), (short)Math.min(height, drawable.height), drawable);
+                pixelBufferPool.release(backingStore);
+            }
+
+            texture.setNeedsUpdate(true);
+            newDrawable.setTexture(texture);
+        }
+
+        drawable.setOnDrawListener(null);
+        drawables.put(drawable.id, newDrawable);
+        return newDrawable;
+    }
+
+    public PixelBufferPool getPixelBufferPool() {
+        return pixelBufferPool;
     }
 
 
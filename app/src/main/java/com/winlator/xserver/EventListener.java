@@ -2,11 +2,10 @@ package com.winlator.xserver;
 
 import com.winlator.xserver.events.Event;
 
-import java.io.IOException;
-
 public class EventListener {
     public final XClient client;
     public final Bitmask eventMask;
+    private long motionHintGeneration = -1;
 
     public EventListener(XClient client, Bitmask eventMask) {
         this.client = client;
@@ -22,11 +21,19 @@ public class EventListener {
     }
 
     public void sendEvent(Event event) {
-        try {
-            event.send(client.getSequenceNumber(), client.getOutputStream());
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
+        client.sendEvent(event);
+    }
+
+    /* With PointerMotionHint a single hint is sent per generation, until the client queries the pointer. */
+    boolean isMotionHintSent(long generation) {
+        return motionHintGeneration == generation;
+    }
+
+    void setMotionHintSent(long generation) {
+        motionHintGeneration = generation;
+    }
+
+    void resetMotionHint() {
+        motionHintGeneration = -1;
     }
 }
@@ -13,10 +13,15 @@ import com.winlator.xserver.events.MappingNotify;
 import com.winlator.xserver.events.MotionNotify;
 import com.winlator.xserver.events.PointerWindowEvent;
 
+import java.util.List;
+
 public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyboard.OnKeyboardListener, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener {
     private static final byte MOUSE_WHEEL_DELTA = 120;
     private Window pointWindow;
     private final XServer xServer;
+    private final MotionNotify motionNotify = new MotionNotify();
+    private long motionHintGeneration = 0;
+    private volatile boolean pointWindowInvalid = false;
 
     public InputDeviceManager(XServer xServer) {
         this.xServer = xServer;
@@ -29,40 +34,50 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onMapWindow(Window window) {
-        updatePointWindow();
+        pointWindowInvalid = true;
     }
 
     @Override
     public void onUnmapWindow(Window window) {
-        updatePointWindow();
+        pointWindowInvalid = true;
     }
 
     @Override
     public void onChangeWindowZOrder(Window window) {
-        updatePointWindow();
+        pointWindowInvalid = true;
     }
 
     @Override
     public void onUpdateWindowGeometry(Window window, boolean resized) {
-        updatePointWindow();
+        pointWindowInvalid = true;
     }
 
     @Override
     public void onCreateResource(XResource resource) {
-        updatePointWindow();
+        pointWindowInvalid = true;
     }
 
     @Override
     public void onFreeResource(XResource resource) {
-        updatePointWindow();
+        pointWindowInvalid = true;
     }
 
-    private void updatePointWindow() {
+    /* Window tree changes only mark the point window stale, so a burst of them (e.g. destroying every child of a window) costs a single
+     * spatial index rebuild when the point window is next needed. */
+    private synchronized void updatePointWindow() {
+        pointWindowInvalid = false;
         Window pointWindow = xServer.windowManager.findPointWindow(xServer.pointer.getClampedX(), xServer.pointer.getClampedY());
-        this.pointWindow = pointWindow != null ? pointWindow : xServer.windowManager.rootWindow;
+        if (pointWindow == null) pointWindow = xServer.windowManager.rootWindow;
+        if (pointWindow != this.pointWindow) motionHintGeneration++;
+        this.pointWindow = pointWindow;
+    }
+
+    private void validatePointWindow() {
+        if (pointWindowInvalid) updatePointWindow();
     }
 
     public Window getPointWindow() {
+        validatePointWindow();
         return pointWindow;
     }
 
@@ -126,12 +141,14 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onPointerButtonPress(Pointer.Button button) {
+        motionHintGeneration++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             int wheelDelta = button == Pointer.Button.BUTTON_SCROLL_UP ? MOUSE_WHEEL_DELTA : (button == Pointer.Button.BUTTON_SCROLL_DOWN ? -MOUSE_WHEEL_DELTA : 0);
             winHandler.mouseEvent(MouseEventFlags.getFlagFor(button, true), 0, 0, wheelDelta);
         }
         else {
+            validatePointWindow();
             Window grabWindow = xServer.grabManager.getWindow();
             if (grabWindow == null) {
                 grabWindow = pointWindow.getAncestorWithEventId(Event.BUTTON_PRESS);
@@ -154,11 +171,13 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onPointerButtonRelease(Pointer.Button button) {
+        motionHintGeneration++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             winHandler.mouseEvent(MouseEventFlags.getFlagFor(button, false), 0, 0, 0);
         }
         else {
+            validatePointWindow();
             Bitmask eventMask = createPointerEventMask();
             Window grabWindow = xServer.grabManager.getWindow();
             Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
@@ -181,27 +200,61 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         }
     }
 
+    /* Motion is reported through a single reusable event, nothing is allocated per pointer movement. */
     @Override
     public void onPointerMove(short x, short y) {
         updatePointWindow();
-        Bitmask eventMask = createPointerEventMask();
+        int eventMask = getPointerEventMask();
         Window grabWindow = xServer.grabManager.getWindow();
-        Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
+        Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventId(eventMask) : null;
 
         if (grabWindow != null || window != null) {
             Window eventWindow = window != null ? window : grabWindow;
-            short[] localPoint = eventWindow.rootPointToLocal(x, y);
-
             Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-            sendEvent(window, eventMask, new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
+            motionNotify.set(xServer.windowManager.rootWindow, eventWindow, child, x, y, (short)(x - eventWindow.getRootX()), (short)(y - eventWindow.getRootY()), getKeyButMaskBits());
+
+            if (grabWindow != null && grabWindow.attributes.isEnabled()) {
+                EventListener eventListener = xServer.grabManager.getEventListener();
+                if (xServer.grabManager.isOwnerEvents() && window != null) {
+                    sendMotionNotify(window, eventMask, eventListener.client);
+                }
+                else if (eventListener.isInterestedIn(eventMask)) {
+                    sendMotionNotify(eventListener);
+                }
+            }
+            else if (window != null && window.attributes.isEnabled()) {
+                sendMotionNotify(window, eventMask, null);
+            }
         }
     }
 
+    private void sendMotionNotify(Window window, int eventMask, XClient client) {
+        List<EventListener> eventListeners = window.getEventListeners();
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
+            if (eventListener.isInterestedIn(eventMask) && (client == null || eventListener.client == client)) {
+                sendMotionNotify(eventListener);
+            }
+        }
+    }
+
+    private void sendMotionNotify(EventListener eventListener) {
+        boolean hint = eventListener.isInterestedIn(Event.POINTER_MOTION_HINT);
+        if (hint) {
+            if (eventListener.isMotionHintSent(motionHintGeneration)) return;
+            eventListener.setMotionHintSent(motionHintGeneration);
+        }
+
+        motionNotify.setHint(hint);
+        eventListener.client.sendMotionNotify(motionNotify);
+    }
+
     @Override
     public void onKeyPress(byte keycode, int keysym) {
+        motionHintGeneration++;
         Window focusedWindow = xServer.windowManager.getFocusedWindow();
         if (focusedWindow == null) return;
-        updatePointWindow();
+        validatePointWindow();
 
         Window eventWindow = null;
         Window child = null;
@@ -231,9 +284,10 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     @Override
     public void onKeyRelease(byte keycode) {
+        motionHintGeneration++;
         Window focusedWindow = xServer.windowManager.getFocusedWindow();
         if (focusedWindow == null) return;
-        updatePointWindow();
+        validatePointWindow();
 
         Window eventWindow = null;
         Window child = null;
@@ -257,36 +311,40 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     }
 
     private Bitmask createPointerEventMask() {
-        Bitmask eventMask = new Bitmask();
-        eventMask.set(Event.POINTER_MOTION);
+        return new Bitmask(getPointerEventMask());
+    }
+
+    private int getPointerEventMask() {
+        int eventMask = Event.POINTER_MOTION;
 
         Bitmask buttonMask = xServer.pointer.getButtonMask();
         if (!buttonMask.isEmpty()) {
-            eventMask.set(Event.BUTTON_MOTION);
+            eventMask |= Event.BUTTON_MOTION;
 
             if (buttonMask.isSet(Pointer.Button.BUTTON_LEFT.flag())) {
-                eventMask.set(Event.BUTTON1_MOTION);
+                eventMask |= Event.BUTTON1_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_MIDDLE.flag())) {
-                eventMask.set(Event.BUTTON2_MOTION);
+                eventMask |= Event.BUTTON2_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_RIGHT.flag())) {
-                eventMask.set(Event.BUTTON3_MOTION);
+                eventMask |= Event.BUTTON3_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_SCROLL_UP.flag())) {
-                eventMask.set(Event.BUTTON4_MOTION);
+                eventMask |= Event.BUTTON4_MOTION;
             }
             if (buttonMask.isSet(Pointer.Button.BUTTON_SCROLL_DOWN.flag())) {
-                eventMask.set(Event.BUTTON5_MOTION);
+                eventMask |= Event.BUTTON5_MOTION;
             }
         }
         return eventMask;
     }
 
     public Bitmask getKeyButMask() {
-        Bitmask keyButMask = new Bitmask();
-        keyButMask.join(xServer.pointer.getButtonMask());
-        keyButMask.join(xServer.keyboard.getModifiersMask());
-        return keyButMask;
+        return new Bitmask(getKeyButMaskBits());
+    }
+
+    private int getKeyButMaskBits() {
+        return xServer.pointer.getButtonMask().getBits() | xServer.keyboard.getModifiersMask().getBits();
     }
 }
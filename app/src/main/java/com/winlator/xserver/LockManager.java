@@ -0,0 +1,106 @@
+package com.winlator.xserver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/* One read-write lock per lockable. A combination of lockables is identified by a bit mask and taken in declaration order. */
+class LockManager {
+    private static final XServer.Lockable[] LOCKABLES = XServer.Lockable.values();
+    private final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[LOCKABLES.length];
+    private final LockSet[] exclusiveLockSets = new LockSet[1 << LOCKABLES.length];
+    private final LockSet[] sharedLockSets = new LockSet[1 << LOCKABLES.length];
+    private final AtomicLongArray contendedLockCounts = new AtomicLongArray(LOCKABLES.length);
+    private boolean lockOrderCheckEnabled = false;
+
+    LockManager() {
+        for (int i = 0; i < LOCKABLES.length; i++) locks[i] = new ReentrantReadWriteLock();
+        for (int lockMask = 0; lockMask < exclusiveLockSets.length; lockMask++) {
+            exclusiveLockSets[lockMask] = new LockSet(lockMask, false);
+            sharedLockSets[lockMask] = new LockSet(lockMask, true);
+        }
+    }
+
+    /* Lock sets are created once per combination of lockables and hold no per-acquisition state, so they can be shared between threads. */
+    private class LockSet implements XLock {
+        private final XServer.Lockable[] lockables;
+        private final boolean shared;
+
+        private LockSet(int lockMask, boolean shared) {
+            this.lockables = new XServer.Lockable[Integer.bitCount(lockMask)];
+            this.shared = shared;
+            for (int i = 0, j = 0; i < LOCKABLES.length; i++) {
+                if ((lockMask & (1 << i)) != 0) lockables[j++] = LOCKABLES[i];
+            }
+        }
+
+        private LockSet acquire() {
+            for (XServer.Lockable lockable : lockables) acquireLock(lockable, shared);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            for (int i = lockables.length - 1; i >= 0; i--) {
+                ReentrantReadWriteLock lock = locks[lockables[i].ordinal()];
+                if (shared) {
+                    lock.readLock().unlock();
+                }
+                else lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void acquireLock(XServer.Lockable lockable, boolean shared) {
+        if (lockOrderCheckEnabled) checkLockOrder(lockable, shared);
+        ReentrantReadWriteLock rwLock = locks[lockable.ordinal()];
+        Lock lock = shared ? rwLock.readLock() : rwLock.writeLock();
+        if (!lock.tryLock()) {
+            contendedLockCounts.incrementAndGet(lockable.ordinal());
+            lock.lock();
+        }
+    }
+
+    /* Locks must be taken in Lockable declaration order, and a shared lock can never be upgraded to an exclusive one. */
+    private void checkLockOrder(XServer.Lockable lockable, boolean shared) {
+        ReentrantReadWriteLock lock = locks[lockable.ordinal()];
+        if (lock.isWriteLockedByCurrentThread()) return;
+        if (lock.getReadHoldCount() > 0) {
+            if (shared) return;
+            throw new IllegalStateException("Cannot upgrade shared lock on "+lockable+" to exclusive.");
+        }
+
+        for (int i = lockable.ordinal() + 1; i < LOCKABLES.length; i++) {
+            ReentrantReadWriteLock other = locks[i];
+            if (other.isWriteLockedByCurrentThread() || other.getReadHoldCount() > 0) {
+                throw new IllegalStateException("Lock order violation: "+lockable+" acquired while holding "+LOCKABLES[i]+".");
+            }
+        }
+    }
+
+    static int maskOf(XServer.Lockable... lockables) {
+        int lockMask = 0;
+        for (XServer.Lockable lockable : lockables) lockMask |= 1 << lockable.ordinal();
+        return lockMask;
+    }
+
+    static int allMask() {
+        return (1 << LOCKABLES.length) - 1;
+    }
+
+    XLock lock(int lockMask, boolean shared) {
+        return (shared ? sharedLockSets : exclusiveLockSets)[lockMask].acquire();
+    }
+
+    boolean isLockOrderCheckEnabled() {
+        return lockOrderCheckEnabled;
+    }
+
+    void setLockOrderCheckEnabled(boolean lockOrderCheckEnabled) {
+        this.lockOrderCheckEnabled = lockOrderCheckEnabled;
+    }
+
+    long getContendedLockCount(XServer.Lockable lockable) {
+        return contendedLockCounts.get(lockable.ordinal());
+    }
+}
@@ -0,0 +1,73 @@
+package com.winlator.xserver;
+
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/* Backing stores of freed drawables kept for reuse, bucketed in quarter power of two size classes so that at most a fourth of a buffer goes unused.
+ * Reused buffers are cleared natively, a new drawable never exposes the pixels of a freed one. Buffers the pool does not keep, past
+ * its bound or after trim(), are direct buffers still reachable from stale slices, so they are left for the GC to free. */
+public class PixelBufferPool {
+    private static final int MIN_CAPACITY = 4096;
+    private static final int MAX_RETAINED_BYTES = 64 * 1024 * 1024;
+    private final SparseArray<ArrayDeque<ByteBuffer>> freeBuffers = new SparseArray<>();
+    private long retainedBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    public static int roundCapacity(int size) {
+        if (size <= MIN_CAPACITY) return MIN_CAPACITY;
+        int step = Integer.highestOneBit(size - 1) >> 2;
+        return (size + step - 1) & -step;
+    }
+
+    public synchronized ByteBuffer acquire(int size) {
+        int capacity = roundCapacity(size);
+        ArrayDeque<ByteBuffer> buffers = freeBuffers.get(capacity);
+        ByteBuffer buffer = buffers != null ? buffers.poll() : null;
+        if (buffer != null) {
+            retainedBytes -= capacity;
+            hitCount++;
+            clear(buffer, size);
+            return buffer;
+        }
+
+        missCount++;
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (capacity != roundCapacity(capacity) || retainedBytes + capacity > MAX_RETAINED_BYTES) return;
+
+        ArrayDeque<ByteBuffer> buffers = freeBuffers.get(capacity);
+        if (buffers == null) freeBuffers.put(capacity, (buffers = new ArrayDeque<>()));
+        buffer.clear();
+        buffers.add(buffer);
+        retainedBytes += capacity;
+    }
+
+    public synchronized void trim() {
+        freeBuffers.clear();
+        retainedBytes = 0;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    static native void clear(ByteBuffer data, int length);
+}
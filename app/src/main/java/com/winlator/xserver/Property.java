@@ -2,11 +2,9 @@ package com.winlator.xserver;
 
 import androidx.annotation.NonNull;
 
-import com.winlator.core.ArrayUtils;
-import com.winlator.core.StringUtils;
-
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 public class Property {
@@ -28,10 +26,16 @@ public class Property {
             return null;
         }
     }
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MIN_CAPACITY = 64;
     public final int name;
     public final int type;
     public final Format format;
-    public ByteBuffer data;
+    private byte[] buffer = EMPTY;
+    private int start = 0;
+    private int length = 0;
+    private ByteBuffer data;
+    private volatile String string;
 
     public Property(int name, int type, Format format, byte[] data) {
         this.name = name;
@@ -41,56 +45,115 @@ public class Property {
     }
 
     public void replace(byte[] data) {
-        this.data = ByteBuffer.wrap(data != null ? data : new byte[0]).order(ByteOrder.LITTLE_ENDIAN);
+        buffer = data != null ? data : EMPTY;
+        start = 0;
+        length = buffer.length;
+        invalidate();
     }
 
+    /* Values grow in place with 50% spare capacity, a prepend that runs out of room in front leaves all the spare capacity there
+     * so chunked prepends are amortized too. */
     public void prepend(byte[] values) {
-        replace(ArrayUtils.concat(values, this.data.array()));
+        int count = values.length;
+        if (start < count) {
+            int capacity = Math.max(MIN_CAPACITY, length + count + ((length + count) >> 1));
+            byte[] newBuffer = new byte[capacity];
+            int newStart = capacity - length;
+            System.arraycopy(buffer, start, newBuffer, newStart, length);
+            buffer = newBuffer;
+            start = newStart;
+        }
+
+        start -= count;
+        System.arraycopy(values, 0, buffer, start, count);
+        length += count;
+        invalidate();
     }
 
     public void append(byte[] values) {
-        replace(ArrayUtils.concat(this.data.array(), values));
+        int count = values.length;
+        if (buffer.length - start - length < count) {
+            int capacity = Math.max(MIN_CAPACITY, length + count + ((length + count) >> 1));
+            byte[] newBuffer = new byte[capacity];
+            System.arraycopy(buffer, start, newBuffer, 0, length);
+            buffer = newBuffer;
+            start = 0;
+        }
+
+        System.arraycopy(values, 0, buffer, start + length, count);
+        length += count;
+        invalidate();
+    }
+
+    /* Values only change with the window manager locked exclusively, so the view is rebuilt right away and readers holding the lock
+     * shared never create it. The decoded string may still be filled by concurrent readers, it is immutable and volatile so any of
+     * the identical results can win. */
+    private void invalidate() {
+        data = ByteBuffer.wrap(buffer, start, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+        string = null;
     }
 
+    public int length() {
+        return length;
+    }
+
+    /* Little endian view of the value, its array() is the backing storage starting at arrayOffset(). */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /* Decoded once and kept until the value changes. */
     @NonNull
     @Override
     public String toString() {
-        String type = Atom.getName(this.type);
-        data.rewind();
+        String string = this.string;
+        if (string == null) this.string = string = decodeString();
+        return string;
+    }
+
+    private String decodeString() {
+        String type = Atom.isValid(this.type) ? Atom.getName(this.type) : "";
+        ByteBuffer data = getData();
         switch (type) {
             case "UTF8_STRING":
-                return StringUtils.fromANSIString(data.array(), StandardCharsets.UTF_8);
+                return decodeString(StandardCharsets.UTF_8);
             case "STRING":
-                return StringUtils.fromANSIString(data.array(), XServer.LATIN1_CHARSET);
+                return decodeString(XServer.LATIN1_CHARSET);
             case "ATOM":
-                return Atom.getName(data.getInt(0));
+                String name = length >= 4 ? Atom.getName(data.getInt(0)) : null;
+                return name != null ? name : "";
             default:
                 StringBuilder sb = new StringBuilder();
-                for (int i = 0, size = data.capacity() / (format.value >> 3); i < size; i++) {
+                for (int i = 0, size = length / (format.value >> 3); i < size; i++) {
                     if (i > 0) sb.append(",");
                     switch (format) {
                         case BYTE_ARRAY:
-                            sb.append(data.get());
+                            sb.append(data.get(i));
                             break;
                         case SHORT_ARRAY:
-                            sb.append(data.getShort());
+                            sb.append(data.getShort(i * 2));
                             break;
                         case INT_ARRAY:
-                            sb.append(data.getInt());
+                            sb.append(data.getInt(i * 4));
                             break;
                     }
                 }
-                data.rewind();
                 return sb.toString();
         }
     }
 
+    private String decodeString(Charset charset) {
+        int end = start;
+        while (end < start + length && buffer[end] != 0) end++;
+        return new String(buffer, start, end - start, charset);
+    }
+
     public int getInt(int index) {
-        return data.getInt(index * 4);
+        return getData().getInt(index * 4);
     }
 
     public long getLong(int index) {
-        return data.getLong(index * 8);
+        return getData().getLong(index * 8);
     }
 
     public String nameAsString() {
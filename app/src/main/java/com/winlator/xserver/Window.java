@@ -35,6 +35,13 @@ public class Window extends XResource {
     private final ArrayList<Window> children = new ArrayList<>();
     private final List<Window> immutableChildren = Collections.unmodifiableList(children);
     private final ArrayList<EventListener> eventListeners = new ArrayList<>();
+    private final List<EventListener> immutableEventListeners = Collections.unmodifiableList(eventListeners);
+    private ArrayList<EventListener>[] eventListenersByEventId;
+    private int eventListenerMask = 0;
+    private String name = "";
+    private String className = "";
+    private int processId = 0;
+    int indexedProcessId = 0;
 
     public Window(int id, Drawable content, int x, int y, int width, int height, XClient originClient) {
         super(id);
@@ -108,10 +115,12 @@ public class Window extends XResource {
 
     public void addProperty(Property property) {
         properties.put(property.name, property);
+        updateCachedProperty(property.name);
     }
 
     public void removeProperty(int id) {
         properties.remove(id);
+        updateCachedProperty(id);
         sendEvent(Event.PROPERTY_CHANGE, new PropertyNotify(this, id, true));
     }
 
@@ -126,7 +135,7 @@ public class Window extends XResource {
             if (property.format == format) {
                 property.replace(data);
             }
-            else properties.put(atom, new Property(atom, type, format, data));
+            else addProperty(new Property(atom, type, format, data));
             modified = true;
         }
         else if (property.format == format && property.type == type) {
@@ -140,20 +149,36 @@ public class Window extends XResource {
         }
 
         if (modified) {
+            updateCachedProperty(atom);
             sendEvent(Event.PROPERTY_CHANGE, new PropertyNotify(this, atom, false));
             return property;
         }
         else return null;
     }
 
+    /* WM_NAME, WM_CLASS and _NET_WM_PID are decoded whenever they change, which only happens with the window manager locked exclusively,
+     * so readers holding it shared never write to the window. */
+    private void updateCachedProperty(int atom) {
+        if (atom == Atom.getId("WM_NAME")) {
+            Property property = getProperty(atom);
+            name = property != null ? property.toString() : "";
+        }
+        else if (atom == Atom.getId("WM_CLASS")) {
+            Property property = getProperty(atom);
+            className = property != null ? property.toString() : "";
+        }
+        else if (atom == Atom.getId("_NET_WM_PID")) {
+            Property property = getProperty(atom);
+            processId = property != null && property.length() >= 4 ? property.getInt(0) : 0;
+        }
+    }
+
     public String getName() {
-        Property property = getProperty(Atom.getId("WM_NAME"));
-        return property != null ? property.toString() : "";
+        return name;
     }
 
     public String getClassName() {
-        Property property = getProperty(Atom.getId("WM_CLASS"));
-        return property != null ? property.toString() : "";
+        return className;
     }
 
     public int getWMHintsValue(WMHints wmHints) {
@@ -162,13 +187,12 @@ public class Window extends XResource {
     }
 
     public int getProcessId() {
-        Property property = getProperty(Atom.getId("_NET_WM_PID"));
-        return property != null ? property.getInt(0) : 0;
+        return processId;
     }
 
     public boolean isWoW64() {
         Property property = getProperty(Atom.getId("_NET_WM_WOW64"));
-        return property != null && property.data.get(0) == 1;
+        return property != null && property.getData().get(0) == 1;
     }
 
     public long getHandle() {
@@ -229,62 +253,87 @@ public class Window extends XResource {
         return children.size();
     }
 
+    /* Listeners are also kept in one list per event bit with the union of their masks, so checking for
+     * and delivering a single event costs a bit test and a walk over the listeners that want it. */
+    @SuppressWarnings("unchecked")
     public void addEventListener(EventListener eventListener) {
         eventListeners.add(eventListener);
+        if (eventListenersByEventId == null) eventListenersByEventId = new ArrayList[32];
+
+        int bits = eventListener.eventMask.getBits();
+        eventListenerMask |= bits;
+        while (bits != 0) {
+            int index = Integer.numberOfTrailingZeros(bits);
+            if (eventListenersByEventId[index] == null) eventListenersByEventId[index] = new ArrayList<>(2);
+            eventListenersByEventId[index].add(eventListener);
+            bits &= bits - 1;
+        }
     }
 
     public void removeEventListener(EventListener eventListener) {
-        eventListeners.remove(eventListener);
+        if (!eventListeners.remove(eventListener)) return;
+
+        int bits = eventListener.eventMask.getBits();
+        while (bits != 0) {
+            int index = Integer.numberOfTrailingZeros(bits);
+            ArrayList<EventListener> listeners = eventListenersByEventId[index];
+            listeners.remove(eventListener);
+            if (listeners.isEmpty()) eventListenerMask &= ~(1 << index);
+            bits &= bits - 1;
+        }
+    }
+
+    public List<EventListener> getEventListeners() {
+        return immutableEventListeners;
     }
 
     public boolean hasEventListenerFor(int eventId) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId)) return true;
-        }
-        return false;
+        return (eventListenerMask & eventId) != 0;
     }
 
     public boolean hasEventListenerFor(Bitmask mask) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(mask)) return true;
-        }
-        return false;
+        return (eventListenerMask & mask.getBits()) != 0;
     }
 
     public void sendEvent(int eventId, Event event) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId)) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventId, event, null, true);
     }
 
     public void sendEvent(Bitmask eventMask, Event event) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventMask)) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventMask.getBits(), event, null, true);
     }
 
     public void sendEvent(int eventId, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId) && eventListener.client == client) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventId, event, client, false);
     }
 
     public void sendEvent(Bitmask eventMask, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) {
-                eventListener.sendEvent(event);
+        sendEvent(eventMask.getBits(), event, client, false);
+    }
+
+    /* A listener interested in several of the bits of a mask receives the event once. */
+    private void sendEvent(int eventId, Event event, XClient client, boolean anyClient) {
+        if ((eventListenerMask & eventId) == 0) return;
+
+        if (Integer.bitCount(eventId) == 1) {
+            ArrayList<EventListener> listeners = eventListenersByEventId[Integer.numberOfTrailingZeros(eventId)];
+            for (int i = 0; i < listeners.size(); i++) {
+                EventListener eventListener = listeners.get(i);
+                if (anyClient || eventListener.client == client) eventListener.sendEvent(event);
+            }
+        }
+        else {
+            for (int i = 0; i < eventListeners.size(); i++) {
+                EventListener eventListener = eventListeners.get(i);
+                if (eventListener.isInterestedIn(eventId) && (anyClient || eventListener.client == client)) {
+                    eventListener.sendEvent(event);
+                }
             }
         }
     }
 
     public void sendEvent(Event event) {
-        for (EventListener eventListener : eventListeners) eventListener.sendEvent(event);
+        for (int i = 0; i < eventListeners.size(); i++) eventListeners.get(i).sendEvent(event);
     }
 
     public boolean containsPoint(short rootX, short rootY) {
@@ -385,16 +434,12 @@ public class Window extends XResource {
     }
 
     public Bitmask getAllEventMasks() {
-        Bitmask eventMask = new Bitmask();
-        for (EventListener eventListener : eventListeners) eventMask.join(eventListener.eventMask);
-        return eventMask;
+        return new Bitmask(eventListenerMask);
     }
 
     public EventListener getButtonPressListener() {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(Event.BUTTON_PRESS)) return eventListener;
-        }
-        return null;
+        if (!hasEventListenerFor(Event.BUTTON_PRESS)) return null;
+        return eventListenersByEventId[Integer.numberOfTrailingZeros(Event.BUTTON_PRESS)].get(0);
     }
 
     public void disableAllDescendants() {
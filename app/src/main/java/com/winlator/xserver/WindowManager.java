@@ -22,11 +22,13 @@ import java.util.List;
 public class WindowManager extends XResourceManager {
     public enum FocusRevertTo {NONE, POINTER_ROOT, PARENT}
     public final Window rootWindow;
-    private final SparseArray<Window> windows = new SparseArray<>();
+    private final XResourceMap<Window> windows = new XResourceMap<>();
+    private final SparseArray<ArrayList<Window>> windowsByProcessId = new SparseArray<>();
     public final DrawableManager drawableManager;
     private Window focusedWindow;
     private FocusRevertTo focusRevertTo = FocusRevertTo.NONE;
     private final ArrayList<OnWindowModificationListener> onWindowModificationListeners = new ArrayList<>();
+    private final WindowSpatialIndex spatialIndex;
 
     public interface OnWindowModificationListener {
         default void onMapWindow(Window window) {}
@@ -51,6 +53,7 @@ public class WindowManager extends XResourceManager {
         rootWindow = new Window(id, drawable, 0, 0, screenInfo.width, screenInfo.height, null);
         rootWindow.attributes.setMapped(true);
         windows.put(id, rootWindow);
+        spatialIndex = new WindowSpatialIndex(rootWindow);
     }
 
     public Window getWindow(int id) {
@@ -58,13 +61,33 @@ public class WindowManager extends XResourceManager {
     }
 
     public Window findWindowWithProcessId(int processId) {
-        for (int i = 0; i < windows.size(); i++) {
-            Window window = windows.valueAt(i);
-            if (window != null && window.getProcessId() == processId) return window;
+        ArrayList<Window> windows = windowsByProcessId.get(processId);
+        if (windows != null) {
+            for (Window window : windows) if (window.getProcessId() == processId) return window;
         }
         return null;
     }
 
+    /* Windows are indexed by the pid they had when _NET_WM_PID was last changed, lookups recheck it in case the property was deleted since. */
+    private void updateProcessIdIndex(Window window, int processId) {
+        if (window.indexedProcessId == processId) return;
+
+        if (window.indexedProcessId != 0) {
+            ArrayList<Window> windows = windowsByProcessId.get(window.indexedProcessId);
+            if (windows != null) {
+                windows.remove(window);
+                if (windows.isEmpty()) windowsByProcessId.remove(window.indexedProcessId);
+            }
+        }
+
+        if (processId != 0) {
+            ArrayList<Window> windows = windowsByProcessId.get(processId);
+            if (windows == null) windowsByProcessId.put(processId, (windows = new ArrayList<>()));
+            windows.add(window);
+        }
+        window.indexedProcessId = processId;
+    }
+
     public void destroyWindow(int id) {
         Window window = getWindow(id);
         if (window != null && rootWindow.id != id) {
@@ -81,10 +104,12 @@ public class WindowManager extends XResourceManager {
         window.sendEvent(Event.STRUCTURE_NOTIFY, new DestroyNotify(window, window));
         parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new DestroyNotify(parent, window));
         windows.remove(window.id);
+        updateProcessIdIndex(window, 0);
         if (window.isInputOutput()) drawableManager.removeDrawable(window.getContent().id);
         triggerOnFreeResourceListener(window);
         if (window == focusedWindow) revertFocus();
         parent.removeChild(window);
+        spatialIndex.invalidate();
     }
 
     public void mapWindow(Window window) {
@@ -92,6 +117,7 @@ public class WindowManager extends XResourceManager {
             Window parent = window.getParent();
             if (!parent.hasEventListenerFor(Event.SUBSTRUCTURE_REDIRECT) || window.attributes.isOverrideRedirect()) {
                 window.attributes.setMapped(true);
+                spatialIndex.invalidate();
                 window.sendEvent(Event.STRUCTURE_NOTIFY, new MapNotify(window, window));
                 parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new MapNotify(parent, window));
                 window.sendEvent(Event.EXPOSURE, new Expose(window));
@@ -104,6 +130,7 @@ public class WindowManager extends XResourceManager {
     public void unmapWindow(Window window) {
         if (rootWindow.id != window.id && window.attributes.isMapped()) {
             window.attributes.setMapped(false);
+            spatialIndex.invalidate();
             Window parent = window.getParent();
             window.sendEvent(Event.STRUCTURE_NOTIFY, new UnmapNotify(window, window));
             parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new UnmapNotify(parent, window));
@@ -140,7 +167,7 @@ public class WindowManager extends XResourceManager {
     }
 
     public Window createWindow(int id, Window parent, short x, short y, short width, short height, WindowAttributes.WindowClass windowClass, Visual visual, byte depth, XClient client) throws XRequestError {
-        if (windows.indexOfKey(id) >= 0) throw new BadIdChoice(id);
+        if (windows.containsKey(id)) throw new BadIdChoice(id);
 
         boolean isInputOutput = false;
         switch (windowClass) {
@@ -189,9 +216,7 @@ public class WindowManager extends XResourceManager {
         }
 
         if (resized && window.isInputOutput()) {
-            Drawable oldContent = window.getContent();
-            drawableManager.removeDrawable(oldContent.id);
-            Drawable newContent = drawableManager.createDrawable(oldContent.id, width, height, oldContent.visual);
+            Drawable newContent = drawableManager.resizeDrawable(window.getContent(), width, height);
             newContent.setOnDrawListener(() -> triggerOnUpdateWindowContent(window));
             window.setContent(newContent);
         }
@@ -201,6 +226,7 @@ public class WindowManager extends XResourceManager {
             window.setY(y);
             window.setWidth(width);
             window.setHeight(height);
+            spatialIndex.invalidate();
             triggerOnUpdateWindowGeometry(window, resized);
         }
 
@@ -219,6 +245,7 @@ public class WindowManager extends XResourceManager {
                 parent.moveChildBelow(window, sibling);
                 break;
         }
+        spatialIndex.invalidate();
         triggerOnChangeWindowZOrder(window);
     }
 
@@ -276,16 +303,12 @@ public class WindowManager extends XResourceManager {
         Window oldParent = window.getParent();
         if (oldParent != null) oldParent.removeChild(window);
         newParent.addChild(window);
+        spatialIndex.invalidate();
+        triggerOnChangeWindowZOrder(window);
     }
 
     public Window findPointWindow(short rootX, short rootY) {
-        return findPointWindow(rootWindow, rootX, rootY);
-    }
-
-    private Window findPointWindow(Window window, short rootX, short rootY) {
-        if (!(window.attributes.isMapped() && window.containsPoint(rootX, rootY))) return null;
-        Window child = window.getChildByCoords(rootX, rootY);
-        return child != null ? findPointWindow(child, rootX, rootY) : window;
+        return spatialIndex.findPointWindow(rootX, rootY);
     }
 
     public void addOnWindowModificationListener(OnWindowModificationListener onWindowModificationListener) {
@@ -333,6 +356,7 @@ public class WindowManager extends XResourceManager {
     }
 
     public void triggerOnModifyWindowProperty(Window window, Property property) {
+        if (property != null && property.name == Atom.getId("_NET_WM_PID")) updateProcessIdIndex(window, window.getProcessId());
         for (int i = onWindowModificationListeners.size()-1; i >= 0; i--) {
             onWindowModificationListeners.get(i).onModifyWindowProperty(window, property);
         }
@@ -0,0 +1,88 @@
+package com.winlator.xserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/* Viewable windows flattened in stacking order with their root rectangles clipped to every ancestor, bucketed in a uniform grid.
+ * The last entry of a cell that contains a point is the window the recursive tree walk would find. */
+class WindowSpatialIndex {
+    private static final byte GRID_SIZE = 16;
+    private final Window rootWindow;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final ArrayList<Window> windows = new ArrayList<>();
+    private short[] rects = new short[64 * 4];
+    private final int[][] cells = new int[GRID_SIZE * GRID_SIZE][];
+    private final int[] cellSizes = new int[GRID_SIZE * GRID_SIZE];
+    private boolean valid = false;
+
+    WindowSpatialIndex(Window rootWindow) {
+        this.rootWindow = rootWindow;
+        cellWidth = Math.max(1, (rootWindow.getWidth() + GRID_SIZE - 1) / GRID_SIZE);
+        cellHeight = Math.max(1, (rootWindow.getHeight() + GRID_SIZE - 1) / GRID_SIZE);
+        for (int i = 0; i < cells.length; i++) cells[i] = new int[8];
+    }
+
+    synchronized void invalidate() {
+        valid = false;
+    }
+
+    synchronized Window findPointWindow(short rootX, short rootY) {
+        if (!valid) rebuild();
+
+        int column = rootX / cellWidth;
+        int row = rootY / cellHeight;
+        if (rootX < 0 || rootY < 0 || column >= GRID_SIZE || row >= GRID_SIZE) return null;
+
+        int cell = row * GRID_SIZE + column;
+        int[] indices = cells[cell];
+        for (int i = cellSizes[cell]-1; i >= 0; i--) {
+            int index = indices[i] * 4;
+            if (rootX >= rects[index+0] && rootY >= rects[index+1] && rootX < rects[index+2] && rootY < rects[index+3]) {
+                return windows.get(indices[i]);
+            }
+        }
+        return null;
+    }
+
+    private void rebuild() {
+        windows.clear();
+        for (int i = 0; i < cellSizes.length; i++) cellSizes[i] = 0;
+        if (rootWindow.attributes.isMapped()) {
+            addWindow(rootWindow, 0, 0, 0, 0, rootWindow.getWidth(), rootWindow.getHeight());
+        }
+        valid = true;
+    }
+
+    private void addWindow(Window window, int parentX, int parentY, int clipX0, int clipY0, int clipX1, int clipY1) {
+        int x = parentX + window.getX();
+        int y = parentY + window.getY();
+        int x0 = Math.max(x, clipX0);
+        int y0 = Math.max(y, clipY0);
+        int x1 = Math.min(x + window.getWidth(), clipX1);
+        int y1 = Math.min(y + window.getHeight(), clipY1);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        int index = windows.size();
+        windows.add(window);
+        if ((index + 1) * 4 > rects.length) rects = Arrays.copyOf(rects, rects.length * 2);
+        rects[index * 4 + 0] = (short)x0;
+        rects[index * 4 + 1] = (short)y0;
+        rects[index * 4 + 2] = (short)x1;
+        rects[index * 4 + 3] = (short)y1;
+
+        int lastColumn = (x1 - 1) / cellWidth;
+        int lastRow = (y1 - 1) / cellHeight;
+        for (int row = y0 / cellHeight; row <= lastRow; row++) {
+            for (int column = x0 / cellWidth; column <= lastColumn; column++) {
+                int cell = row * GRID_SIZE + column;
+                if (cellSizes[cell] == cells[cell].length) cells[cell] = Arrays.copyOf(cells[cell], cells[cell].length * 2);
+                cells[cell][cellSizes[cell]++] = index;
+            }
+        }
+
+        for (Window child : window.getChildren()) {
+            if (child.attributes.isMapped()) addWindow(child, x, y, x0, y0, x1, y1);
+        }
+    }
+}
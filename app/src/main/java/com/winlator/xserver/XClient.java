@@ -4,7 +4,10 @@ import androidx.collection.ArrayMap;
 
 import com.winlator.xconnector.XInputStream;
 import com.winlator.xconnector.XOutputStream;
+import com.winlator.xconnector.XStreamLock;
 import com.winlator.xserver.events.Event;
+import com.winlator.xserver.events.MotionNotify;
+import com.winlator.xserver.requests.DrawRequests;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -17,15 +20,19 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private int requestLength;
     private byte requestData;
     private int initialLength;
+    private DrawRequests.PutImageStream putImageStream;
     private final XInputStream inputStream;
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
     private final ArrayList<XResource> resources = new ArrayList<>();
+    private final MotionNotify pendingMotionNotify = new MotionNotify();
+    private boolean motionNotifyPending = false;
 
     public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
         this.xServer = xServer;
         this.inputStream = inputStream;
         this.outputStream = outputStream;
+        outputStream.setOnEndBatchListener(this::writePendingMotionNotify);
 
         try (XLock lock = xServer.lockAll()) {
             resourceIDBase = xServer.resourceIDs.get();
@@ -50,7 +57,8 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     }
 
     public void sendEvent(Event event) {
-        try {
+        try (XStreamLock lock = outputStream.lock()) {
+            writePendingMotionNotify();
             event.send(sequenceNumber, outputStream);
         }
         catch (IOException e) {
@@ -58,6 +66,34 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         }
     }
 
+    /* While a batch of replies is open the client is busy with its requests, motion is then coalesced
+     * and only the last position is written when the batch is sent or before the next event.
+     * Outside a batch there is nothing left to coalesce: every injected pointer move reaches a client as at most one MotionNotify,
+     * and Android already folds the touch samples of a frame into one ACTION_MOVE, so a client sees at most one motion per input frame.
+     * Holding it back any longer would add that frame of latency and need a timer to flush it. */
+    public void sendMotionNotify(MotionNotify motionNotify) {
+        try (XStreamLock lock = outputStream.lock()) {
+            if (outputStream.isBatching()) {
+                pendingMotionNotify.copyFrom(motionNotify);
+                motionNotifyPending = true;
+            }
+            else motionNotify.send(sequenceNumber, outputStream);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writePendingMotionNotify() throws IOException {
+        if (!motionNotifyPending) return;
+        motionNotifyPending = false;
+        pendingMotionNotify.send(sequenceNumber, outputStream);
+    }
+
+    public void resetMotionHints() {
+        for (int i = 0; i < eventListeners.size(); i++) eventListeners.valueAt(i).resetMotionHint();
+    }
+
     public boolean isInterestedIn(int eventId, Window window) {
         EventListener eventListener = eventListeners.get(window);
         return eventListener != null && eventListener.isInterestedIn(eventId);
@@ -132,6 +168,14 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         return requestLength - actualLength;
     }
 
+    public DrawRequests.PutImageStream getPutImageStream() {
+        return putImageStream;
+    }
+
+    public void setPutImageStream(DrawRequests.PutImageStream putImageStream) {
+        this.putImageStream = putImageStream;
+    }
+
     public void skipRequest() {
         inputStream.skip(getRemainingRequestLength());
     }
@@ -23,11 +23,60 @@ import com.winlator.xserver.requests.WindowRequests;
 
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class XClientRequestHandler implements RequestHandler {
     public static final byte RESPONSE_CODE_ERROR = 0;
     public static final byte RESPONSE_CODE_SUCCESS = 1;
     public static final int MAX_REQUEST_LENGTH = 65535;
+    private static final OpcodeHandler SKIP_REQUEST = (client, inputStream, outputStream) -> client.skipRequest();
+    private final RequestEntry[] requestEntries = new RequestEntry[256];
+
+    private interface OpcodeHandler {
+        void handleRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError;
+    }
+
+    private static class RequestEntry {
+        private final byte opcode;
+        private final String name;
+        private final boolean shared;
+        private final OpcodeHandler handler;
+        private final int lockMask;
+        private final AtomicLong callCount = new AtomicLong();
+        private final AtomicLong byteCount = new AtomicLong();
+        private final AtomicLong totalTime = new AtomicLong();
+
+        private RequestEntry(byte opcode, String name, boolean shared, OpcodeHandler handler, int lockMask) {
+            this.opcode = opcode;
+            this.name = name;
+            this.shared = shared;
+            this.handler = handler;
+            this.lockMask = lockMask;
+        }
+
+        private void record(int length, long time) {
+            callCount.incrementAndGet();
+            recordPartial(length, time);
+        }
+
+        private void recordPartial(int length, long time) {
+            byteCount.addAndGet(length);
+            totalTime.addAndGet(time);
+        }
+
+        private void reset() {
+            callCount.set(0);
+            byteCount.set(0);
+            totalTime.set(0);
+        }
+    }
+
+    public XClientRequestHandler() {
+        setupRequestEntries();
+    }
 
     @Override
     public boolean handleRequest(Client client) throws IOException {
@@ -150,6 +199,7 @@ public class XClientRequestHandler implements RequestHandler {
     }
 
     private boolean handleNormalRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        if (client.getPutImageStream() != null) return continuePutImageStream(client, inputStream);
         if (inputStream.available() < 4) return false;
         byte opcode = inputStream.readByte();
         byte requestData = inputStream.readByte();
@@ -162,305 +212,176 @@ public class XClientRequestHandler implements RequestHandler {
             return false;
         }
         else requestLength = inputStream.readInt() * 4 - 8;
-        if (inputStream.available() < requestLength) return false;
+
+        if (inputStream.available() < requestLength) {
+            if (opcode != ClientOpcodes.PUT_IMAGE || requestLength < DrawRequests.PUT_IMAGE_STREAMING_THRESHOLD || inputStream.available() < DrawRequests.PUT_IMAGE_HEADER_LENGTH) return false;
+            client.setRequestData(requestData);
+            if (!DrawRequests.canStreamPutImage(client, inputStream)) return false;
+            client.generateSequenceNumber();
+            client.setRequestLength(requestLength);
+            return beginPutImageStream(client, inputStream, outputStream);
+        }
 
         client.generateSequenceNumber();
         client.setRequestData(requestData);
         client.setRequestLength(requestLength);
 
+        RequestEntry entry = requestEntries[opcode & 0xff];
+        if (entry == null) {
+            Log.d("XClientRequestHandler", "Unsupported opcode " + opcode);
+            client.skipRequest();
+            return true;
+        }
+
+        long startTime = System.nanoTime();
         try {
-            switch (opcode) {
-                case ClientOpcodes.CREATE_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER)) {
-                        WindowRequests.createWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CHANGE_WINDOW_ATTRIBUTES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.CURSOR_MANAGER)) {
-                        WindowRequests.changeWindowAttributes(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_WINDOW_ATTRIBUTES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.getWindowAttributes(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.DESTROY_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.destroyWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.DESTROY_SUB_WINDOWS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.destroySubWindows(client, inputStream, outputStream);
-                    }
-                case ClientOpcodes.REPARENT_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.reparentWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.MAP_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.mapWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.MAP_SUB_WINDOWS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.mapSubWindows(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.UNMAP_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.unmapWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CONFIGURE_WINDOW:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.configureWindow(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_GEOMETRY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        WindowRequests.getGeometry(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_TREE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.queryTree(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.INTERN_ATOM:
-                    AtomRequests.internAtom(client, inputStream, outputStream);
-                    break;
-                /* This seems to also link to UnmapWindow */
-                case ClientOpcodes.GET_ATOM_NAME:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        AtomRequests.getAtomName(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CHANGE_PROPERTY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.changeProperty(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.DELETE_PROPERTY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.deleteProperty(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_PROPERTY:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.getProperty(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SET_SELECTION_OWNER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        SelectionRequests.setSelectionOwner(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_SELECTION_OWNER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        SelectionRequests.getSelectionOwner(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SEND_EVENT:
-                    try (XLock lock = client.xServer.lockAll()) {
-                        WindowRequests.sendEvent(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GRAB_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER)) {
-                        GrabRequests.grabPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.UNGRAB_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        GrabRequests.ungrabPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.queryPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.TRANSLATE_COORDINATES:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.translateCoordinates(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.WARP_POINTER:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
-                        WindowRequests.warpPointer(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SET_INPUT_FOCUS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.setInputFocus(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_INPUT_FOCUS:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        WindowRequests.getInputFocus(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_KEYMAP:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
-                        outputStream.writeByte(RESPONSE_CODE_SUCCESS);
-                        outputStream.writeByte((byte) 0);
-                        outputStream.writeShort(client.getSequenceNumber());
-                        outputStream.writeInt(2);
-                        outputStream.writePad(32);
-                    }
-                    break;
-                case ClientOpcodes.OPEN_FONT:
-                    FontRequests.openFont(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.LIST_FONTS:
-                    FontRequests.listFonts(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.CREATE_PIXMAP:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        PixmapRequests.createPixmap(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.FREE_PIXMAP:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        PixmapRequests.freePixmap(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CREATE_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.createGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CHANGE_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.changeGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.COPY_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.copyGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.SET_CLIP_RECTANGLES:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.FREE_GC:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        GraphicsContextRequests.freeGC(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.COPY_AREA:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.copyArea(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.POLY_LINE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.polyLine(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.POLY_SEGMENT:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.POLY_RECTANGLE:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.POLY_FILL_RECTANGLE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.polyFillRectangle(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.PUT_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.putImage(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.GET_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        DrawRequests.getImage(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CREATE_COLORMAP:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.FREE_COLORMAP:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.CREATE_CURSOR:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER)) {
-                        CursorRequests.createCursor(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.CREATE_GLYPH_CURSOR:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.FREE_CURSOR:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER)) {
-                        CursorRequests.freeCursor(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.QUERY_EXTENSION:
-                    ExtensionRequests.queryExtension(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.GET_KEYBOARD_MAPPING:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.INPUT_DEVICE)) {
-                        KeyboardRequests.getKeyboardMapping(client, inputStream, outputStream);
-                    }
-                    break;
-                case ClientOpcodes.BELL:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.SET_SCREEN_SAVER:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.GET_SCREEN_SAVER:
-                    WindowRequests.getScreenSaver(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.FORCE_SCREEN_SAVER:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.GET_MODIFIER_MAPPING:
-                    KeyboardRequests.getModifierMapping(client, inputStream, outputStream);
-                    break;
-                case ClientOpcodes.NO_OPERATION:
-                    client.skipRequest();
-                    break;
-                case ClientOpcodes.GET_POINTER_MAPPING:
-                    CursorRequests.getPointerMaping(client, inputStream, outputStream);
-                    break;
-                case 36: // X_GrabServer
-                    try (XLock lock = client.xServer.lockAll()) {
-                        client.xServer.setGrabbed(true, client);
-                        outputStream.writeSuccessReply(client.getSequenceNumber(), 0);
-                        Log.d("XClientRequestHandler", "X_GrabServer request handled successfully:" + outputStream.buffer.position());
-                    }
-                    break;
-
-                case 37: // X_UngrabServer
-                    try (XLock lock = client.xServer.lockAll()) {
-                        if (client.xServer.isGrabbedBy(client)) {
-                            client.xServer.setGrabbed(false, null);
-                        }
-                        outputStream.writeSuccessReply(client.getSequenceNumber(), 0);
-                        Log.d("XClientRequestHandler", "X_UngrabServer request handled successfully:" + outputStream.buffer.position());
-                    }
-                    break;
-                default:
-                    if (opcode < 0) {
-                        Extension extension = client.xServer.extensions.get(opcode);
-                        if (extension != null) extension.handleRequest(client, inputStream, outputStream);
-                    }
-                    else Log.d("XClientRequestHandler", "Unsupported opcode " + opcode);
-                    break;
+            /* GetProperty only modifies the window when asked to delete the property */
+            boolean shared = entry.shared && (opcode != ClientOpcodes.GET_PROPERTY || requestData == 0);
+            try (XLock lock = client.xServer.lock(entry.lockMask, shared)) {
+                entry.handler.handleRequest(client, inputStream, outputStream);
             }
         }
         catch (XRequestError e) {
             client.skipRequest();
             e.sendError(client, opcode);
         }
+        finally {
+            entry.record(requestLength + 4, System.nanoTime() - startTime);
+        }
+
+        return true;
+    }
+
+    private boolean beginPutImageStream(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        RequestEntry entry = requestEntries[ClientOpcodes.PUT_IMAGE];
+        long startTime = System.nanoTime();
+        try (XLock lock = client.xServer.lock(entry.lockMask, false)) {
+            DrawRequests.beginPutImageStream(client, inputStream, outputStream);
+        }
+        catch (XRequestError e) {
+            e.sendError(client, ClientOpcodes.PUT_IMAGE);
+        }
+        entry.record(DrawRequests.PUT_IMAGE_HEADER_LENGTH + 4, System.nanoTime() - startTime);
 
+        continuePutImageStream(client, inputStream);
         return true;
     }
-}
\ No newline at end of file
+
+    private boolean continuePutImageStream(XClient client, XInputStream inputStream) {
+        RequestEntry entry = requestEntries[ClientOpcodes.PUT_IMAGE];
+        long startTime = System.nanoTime();
+        int available = inputStream.available();
+        boolean consumed;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+            consumed = DrawRequests.continuePutImageStream(client, inputStream);
+        }
+        if (consumed) entry.recordPartial(available - inputStream.available(), System.nanoTime() - startTime);
+        return consumed;
+    }
+
+    private void setupRequestEntries() {
+        addRequest(ClientOpcodes.CREATE_WINDOW, "CreateWindow", false, WindowRequests::createWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER);
+        addRequest(ClientOpcodes.CHANGE_WINDOW_ATTRIBUTES, "ChangeWindowAttributes", false, WindowRequests::changeWindowAttributes, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.CURSOR_MANAGER);
+        addRequest(ClientOpcodes.GET_WINDOW_ATTRIBUTES, "GetWindowAttributes", true, WindowRequests::getWindowAttributes, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.DESTROY_WINDOW, "DestroyWindow", false, WindowRequests::destroyWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.DESTROY_SUB_WINDOWS, "DestroySubwindows", false, WindowRequests::destroySubWindows, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.REPARENT_WINDOW, "ReparentWindow", false, WindowRequests::reparentWindow, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.MAP_WINDOW, "MapWindow", false, WindowRequests::mapWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.MAP_SUB_WINDOWS, "MapSubwindows", false, WindowRequests::mapSubWindows, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.UNMAP_WINDOW, "UnmapWindow", false, WindowRequests::unmapWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.CONFIGURE_WINDOW, "ConfigureWindow", false, WindowRequests::configureWindow, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.GET_GEOMETRY, "GetGeometry", true, WindowRequests::getGeometry, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        addRequest(ClientOpcodes.QUERY_TREE, "QueryTree", true, WindowRequests::queryTree, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.INTERN_ATOM, "InternAtom", false, AtomRequests::internAtom);
+        /* This seems to also link to UnmapWindow */
+        addRequest(ClientOpcodes.GET_ATOM_NAME, "GetAtomName", false, AtomRequests::getAtomName, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.CHANGE_PROPERTY, "ChangeProperty", false, WindowRequests::changeProperty, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.DELETE_PROPERTY, "DeleteProperty", false, WindowRequests::deleteProperty, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.GET_PROPERTY, "GetProperty", true, WindowRequests::getProperty, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.SET_SELECTION_OWNER, "SetSelectionOwner", false, SelectionRequests::setSelectionOwner, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.GET_SELECTION_OWNER, "GetSelectionOwner", false, SelectionRequests::getSelectionOwner, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.SEND_EVENT, "SendEvent", true, WindowRequests::sendEvent, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.GRAB_POINTER, "GrabPointer", false, GrabRequests::grabPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE, XServer.Lockable.CURSOR_MANAGER);
+        addRequest(ClientOpcodes.UNGRAB_POINTER, "UngrabPointer", false, GrabRequests::ungrabPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.GRAB_SERVER, "GrabServer", false, GrabRequests::grabServer, XServer.Lockable.values());
+        addRequest(ClientOpcodes.UNGRAB_SERVER, "UngrabServer", false, GrabRequests::ungrabServer, XServer.Lockable.values());
+        addRequest(ClientOpcodes.QUERY_POINTER, "QueryPointer", true, WindowRequests::queryPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.TRANSLATE_COORDINATES, "TranslateCoordinates", true, WindowRequests::translateCoordinates, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.WARP_POINTER, "WarpPointer", false, WindowRequests::warpPointer, XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.SET_INPUT_FOCUS, "SetInputFocus", false, WindowRequests::setInputFocus, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.GET_INPUT_FOCUS, "GetInputFocus", true, WindowRequests::getInputFocus, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.QUERY_KEYMAP, "QueryKeymap", true, KeyboardRequests::queryKeymap, XServer.Lockable.WINDOW_MANAGER);
+        addRequest(ClientOpcodes.OPEN_FONT, "OpenFont", false, FontRequests::openFont);
+        addRequest(ClientOpcodes.LIST_FONTS, "ListFonts", false, FontRequests::listFonts);
+        addRequest(ClientOpcodes.CREATE_PIXMAP, "CreatePixmap", false, PixmapRequests::createPixmap, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        addRequest(ClientOpcodes.FREE_PIXMAP, "FreePixmap", false, PixmapRequests::freePixmap, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        addRequest(ClientOpcodes.CREATE_GC, "CreateGC", false, GraphicsContextRequests::createGC, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.CHANGE_GC, "ChangeGC", false, GraphicsContextRequests::changeGC, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.COPY_GC, "CopyGC", false, GraphicsContextRequests::copyGC, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.SET_CLIP_RECTANGLES, "SetClipRectangles", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.FREE_GC, "FreeGC", false, GraphicsContextRequests::freeGC, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.COPY_AREA, "CopyArea", false, DrawRequests::copyArea, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.POLY_LINE, "PolyLine", false, DrawRequests::polyLine, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.POLY_SEGMENT, "PolySegment", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.POLY_RECTANGLE, "PolyRectangle", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.POLY_FILL_RECTANGLE, "PolyFillRectangle", false, DrawRequests::polyFillRectangle, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.PUT_IMAGE, "PutImage", false, DrawRequests::putImage, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+        addRequest(ClientOpcodes.GET_IMAGE, "GetImage", false, DrawRequests::getImage, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+        addRequest(ClientOpcodes.CREATE_COLORMAP, "CreateColormap", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.FREE_COLORMAP, "FreeColormap", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.CREATE_CURSOR, "CreateCursor", false, CursorRequests::createCursor, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER);
+        addRequest(ClientOpcodes.CREATE_GLYPH_CURSOR, "CreateGlyphCursor", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.FREE_CURSOR, "FreeCursor", false, CursorRequests::freeCursor, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.CURSOR_MANAGER);
+        addRequest(ClientOpcodes.QUERY_EXTENSION, "QueryExtension", false, ExtensionRequests::queryExtension);
+        addRequest(ClientOpcodes.GET_KEYBOARD_MAPPING, "GetKeyboardMapping", true, KeyboardRequests::getKeyboardMapping, XServer.Lockable.INPUT_DEVICE);
+        addRequest(ClientOpcodes.BELL, "Bell", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.SET_SCREEN_SAVER, "SetScreenSaver", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.GET_SCREEN_SAVER, "GetScreenSaver", false, WindowRequests::getScreenSaver);
+        addRequest(ClientOpcodes.FORCE_SCREEN_SAVER, "ForceScreenSaver", false, SKIP_REQUEST);
+        addRequest(ClientOpcodes.GET_POINTER_MAPPING, "GetPointerMapping", false, CursorRequests::getPointerMaping);
+        addRequest(ClientOpcodes.GET_MODIFIER_MAPPING, "GetModifierMapping", false, KeyboardRequests::getModifierMapping);
+        addRequest(ClientOpcodes.NO_OPERATION, "NoOperation", false, SKIP_REQUEST);
+
+        for (int opcode = Byte.MIN_VALUE; opcode < 0; opcode++) {
+            final int majorOpcode = opcode;
+            addRequest((byte)opcode, null, false, (client, inputStream, outputStream) -> {
+                Extension extension = client.xServer.extensions.get(majorOpcode);
+                if (extension != null) extension.handleRequest(client, inputStream, outputStream);
+            });
+        }
+    }
+
+    private void addRequest(byte opcode, String name, boolean shared, OpcodeHandler handler, XServer.Lockable... lockables) {
+        requestEntries[opcode & 0xff] = new RequestEntry(opcode, name, shared, handler, XServer.maskOf(lockables));
+    }
+
+    /* Returns a per-session profile of the handled requests, sorted by the total time spent on each opcode. */
+    public String dumpRequestProfile(XServer xServer) {
+        ArrayList<RequestEntry> entries = new ArrayList<>();
+        for (RequestEntry entry : requestEntries) {
+            if (entry != null && entry.callCount.get() > 0) entries.add(entry);
+        }
+        Collections.sort(entries, (a, b) -> Long.compare(b.totalTime.get(), a.totalTime.get()));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "%-24s %10s %14s %12s %10s\n", "Request", "Calls", "Bytes", "Total (ms)", "Avg (us)"));
+        for (RequestEntry entry : entries) {
+            String name = entry.name;
+            if (name == null) {
+                Extension extension = xServer.extensions.get(entry.opcode);
+                name = extension != null ? extension.getName() : "Extension "+(entry.opcode & 0xff);
+            }
+
+            long callCount = entry.callCount.get();
+            long totalTime = entry.totalTime.get();
+            sb.append(String.format(Locale.ENGLISH, "%-24s %10d %14d %12.2f %10.2f\n", name, callCount, entry.byteCount.get(), totalTime / 1e6, totalTime / 1e3 / callCount));
+        }
+        return sb.toString();
+    }
+
+    public void resetRequestProfile() {
+        for (RequestEntry entry : requestEntries) {
+            if (entry != null) entry.reset();
+        }
+    }
+}
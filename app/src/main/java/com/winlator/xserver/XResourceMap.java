@@ -0,0 +1,128 @@
+package com.winlator.xserver;
+
+import java.util.Arrays;
+
+/* Open addressing map from resource ids to resources with linear probing and backward shift deletion,
+ * so lookups, insertions and removals stay O(1) however many resources are alive and however often they churn. */
+public class XResourceMap<T> {
+    private static final int MIN_CAPACITY = 64;
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size = 0;
+
+    public XResourceMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public XResourceMap(int initialCapacity) {
+        int capacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(initialCapacity, 1) * 2 - 1));
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(int key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int key) {
+        int index = indexOf(key);
+        return index != -1 ? (T)values[index] : null;
+    }
+
+    public boolean containsKey(int key) {
+        return indexOf(key) != -1;
+    }
+
+    public void put(int key, T value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+
+        if ((size + 1) * 2 > values.length) rehash(values.length * 2);
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T remove(int key) {
+        int index = indexOf(key);
+        if (index == -1) return null;
+        T value = (T)values[index];
+
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == null) break;
+            int home = hash(keys[next]) & mask;
+            boolean movable = next > index ? (home <= index || home > next) : (home <= index && home > next);
+            if (movable) {
+                keys[index] = keys[next];
+                values[index] = values[next];
+                index = next;
+            }
+        }
+
+        values[index] = null;
+        size--;
+        return value;
+    }
+
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /* Slots are iterated from 0 to capacity() - 1, valueAt returns null for empty slots. */
+    public int capacity() {
+        return values.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T valueAt(int slot) {
+        return (T)values[slot];
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) continue;
+            int index = hash(oldKeys[i]) & mask;
+            while (values[index] != null) index = (index + 1) & mask;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+}
@@ -13,8 +13,6 @@ import com.winlator.xserver.extensions.PresentExtension;
 import com.winlator.xserver.extensions.SyncExtension;
 
 import java.nio.charset.Charset;
-import java.util.EnumMap;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class XServer {
     public enum Lockable {WINDOW_MANAGER, PIXMAP_MANAGER, DRAWABLE_MANAGER, GRAPHIC_CONTEXT_MANAGER, INPUT_DEVICE, CURSOR_MANAGER, SHMSEGMENT_MANAGER}
@@ -38,7 +36,7 @@ public class XServer {
     private SHMSegmentManager shmSegmentManager;
     private GLRenderer renderer;
     private WinHandler winHandler;
-    private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
+    private final LockManager lockManager = new LockManager();
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
     private boolean isGrabbed = false;
@@ -47,7 +45,6 @@ public class XServer {
     public XServer(ScreenInfo screenInfo) {
         this.screenInfo = screenInfo;
         cursorLocker = new CursorLocker(this);
-        for (Lockable lockable : Lockable.values()) locks.put(lockable, new ReentrantLock());
 
         pixmapManager = new PixmapManager();
         drawableManager = new DrawableManager(this);
@@ -100,46 +97,60 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
-    private class SingleXLock implements XLock {
-        private final ReentrantLock lock;
-
-        private SingleXLock(Lockable lockable) {
-            this.lock = locks.get(lockable);
-            lock.lock();
-        }
+    static int maskOf(Lockable... lockables) {
+        return LockManager.maskOf(lockables);
+    }
 
-        @Override
-        public void close() {
-            lock.unlock();
-        }
+    XLock lock(int lockMask, boolean shared) {
+        return lockManager.lock(lockMask, shared);
     }
 
-    private class MultiXLock implements XLock {
-        private final Lockable[] lockables;
+    public XLock lock(Lockable lockable) {
+        return lockManager.lock(1 << lockable.ordinal(), false);
+    }
 
-        private MultiXLock(Lockable[] lockables) {
-            this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
-        }
+    public XLock lock(Lockable lockable1, Lockable lockable2) {
+        return lockManager.lock((1 << lockable1.ordinal()) | (1 << lockable2.ordinal()), false);
+    }
 
-        @Override
-        public void close() {
-            for (int i = lockables.length - 1; i >= 0; i--) {
-                locks.get(lockables[i]).unlock();
-            }
-        }
+    public XLock lock(Lockable lockable1, Lockable lockable2, Lockable lockable3) {
+        return lockManager.lock((1 << lockable1.ordinal()) | (1 << lockable2.ordinal()) | (1 << lockable3.ordinal()), false);
     }
 
-    public XLock lock(Lockable lockable) {
-        return new SingleXLock(lockable);
+    public XLock lock(Lockable lockable1, Lockable lockable2, Lockable lockable3, Lockable lockable4) {
+        return lockManager.lock((1 << lockable1.ordinal()) | (1 << lockable2.ordinal()) | (1 << lockable3.ordinal()) | (1 << lockable4.ordinal()), false);
     }
 
     public XLock lock(Lockable... lockables) {
-        return new MultiXLock(lockables);
+        return lockManager.lock(LockManager.maskOf(lockables), false);
     }
 
     public XLock lockAll() {
-        return new MultiXLock(Lockable.values());
+        return lockManager.lock(LockManager.allMask(), false);
+    }
+
+    public XLock lockShared(Lockable lockable) {
+        return lockManager.lock(1 << lockable.ordinal(), true);
+    }
+
+    public XLock lockShared(Lockable lockable1, Lockable lockable2) {
+        return lockManager.lock((1 << lockable1.ordinal()) | (1 << lockable2.ordinal()), true);
+    }
+
+    public XLock lockShared(Lockable... lockables) {
+        return lockManager.lock(LockManager.maskOf(lockables), true);
+    }
+
+    public boolean isLockOrderCheckEnabled() {
+        return lockManager.isLockOrderCheckEnabled();
+    }
+
+    public void setLockOrderCheckEnabled(boolean lockOrderCheckEnabled) {
+        lockManager.setLockOrderCheckEnabled(lockOrderCheckEnabled);
+    }
+
+    public long getContendedLockCount(Lockable lockable) {
+        return lockManager.getContendedLockCount(lockable);
     }
 
     public Extension getExtensionByName(String name) {
@@ -194,10 +205,17 @@ public class XServer {
         extensions.put(BigReqExtension.MAJOR_OPCODE, new BigReqExtension());
         extensions.put(MITSHMExtension.MAJOR_OPCODE, new MITSHMExtension());
         extensions.put(DRI3Extension.MAJOR_OPCODE, new DRI3Extension());
-        extensions.put(PresentExtension.MAJOR_OPCODE, new PresentExtension());
+        extensions.put(PresentExtension.MAJOR_OPCODE, new PresentExtension(this));
         extensions.put(SyncExtension.MAJOR_OPCODE, new SyncExtension());
     }
 
+    /* Stops the threads owned by the server and gives back pooled memory once its connector is gone. */
+    public void release() {
+        PresentExtension presentExtension = getExtension(PresentExtension.MAJOR_OPCODE);
+        presentExtension.release();
+        drawableManager.getPixelBufferPool().trim();
+    }
+
     public <T extends Extension> T getExtension(int opcode) {
         return (T)extensions.get(opcode);
     }
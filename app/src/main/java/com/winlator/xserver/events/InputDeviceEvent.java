@@ -8,20 +8,24 @@ import com.winlator.xserver.Window;
 import java.io.IOException;
 
 public class InputDeviceEvent extends Event {
-    private final byte detail;
-    private final int timestamp;
-    private final Window root;
-    private final Window event;
-    private final Window child;
-    private final short eventX;
-    private final short eventY;
-    private final short rootX;
-    private final short rootY;
-    private final Bitmask state;
+    protected byte detail;
+    private int timestamp;
+    private Window root;
+    private Window event;
+    private Window child;
+    private short eventX;
+    private short eventY;
+    private short rootX;
+    private short rootY;
+    private short state;
 
     public InputDeviceEvent(int code, byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(code);
         this.detail = detail;
+        set(root, event, child, rootX, rootY, eventX, eventY, state.getBits());
+    }
+
+    protected void set(Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, int state) {
         this.timestamp = (int)System.currentTimeMillis();
         this.root = root;
         this.event = event;
@@ -30,7 +34,20 @@ public class InputDeviceEvent extends Event {
         this.rootY = rootY;
         this.eventX = eventX;
         this.eventY = eventY;
-        this.state = state;
+        this.state = (short)state;
+    }
+
+    protected void copyFrom(InputDeviceEvent other) {
+        detail = other.detail;
+        timestamp = other.timestamp;
+        root = other.root;
+        event = other.event;
+        child = other.child;
+        rootX = other.rootX;
+        rootY = other.rootY;
+        eventX = other.eventX;
+        eventY = other.eventY;
+        state = other.state;
     }
 
     @Override
@@ -47,7 +64,7 @@ public class InputDeviceEvent extends Event {
             outputStream.writeShort(rootY);
             outputStream.writeShort(eventX);
             outputStream.writeShort(eventY);
-            outputStream.writeShort((short)state.getBits());
+            outputStream.writeShort(state);
             outputStream.writeByte((byte)1);
             outputStream.writeByte((byte)0);
         }
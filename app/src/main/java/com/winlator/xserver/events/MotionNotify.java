@@ -7,4 +7,22 @@ public class MotionNotify extends InputDeviceEvent {
     public MotionNotify(boolean detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(6, (byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
     }
+
+    /* A template refilled with set() for every pointer motion, it is only valid until sent. */
+    public MotionNotify() {
+        this(false, null, null, null, (short)0, (short)0, (short)0, (short)0, new Bitmask());
+    }
+
+    @Override
+    public void set(Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, int state) {
+        super.set(root, event, child, rootX, rootY, eventX, eventY, state);
+    }
+
+    public void setHint(boolean hint) {
+        detail = (byte)(hint ? 1 : 0);
+    }
+
+    public void copyFrom(MotionNotify other) {
+        super.copyFrom(other);
+    }
 }
@@ -0,0 +1,62 @@
+package com.winlator.xserver.extensions;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+
+/* Vertical blanks of the display reported by a Choreographer that runs on its own looper thread, so presents never wait for the main thread. */
+public class ChoreographerVBlankClock implements VBlankClock, Choreographer.FrameCallback {
+    private HandlerThread thread;
+    private Handler handler;
+    private Choreographer choreographer;
+    private OnVBlankListener onVBlankListener;
+    private boolean requested = false;
+
+    @Override
+    public synchronized void setOnVBlankListener(OnVBlankListener onVBlankListener) {
+        this.onVBlankListener = onVBlankListener;
+    }
+
+    @Override
+    public synchronized void requestVBlank() {
+        if (requested) return;
+        requested = true;
+
+        if (thread == null) {
+            thread = new HandlerThread("VBlankClock");
+            thread.start();
+            handler = new Handler(thread.getLooper());
+        }
+
+        handler.post(() -> {
+            if (choreographer == null) choreographer = Choreographer.getInstance();
+            choreographer.postFrameCallback(this);
+        });
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        OnVBlankListener onVBlankListener;
+        synchronized (this) {
+            requested = false;
+            onVBlankListener = this.onVBlankListener;
+        }
+        if (onVBlankListener != null) onVBlankListener.onVBlank(frameTimeNanos);
+    }
+
+    @Override
+    public synchronized void release() {
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+            choreographer = null;
+        }
+        requested = false;
+    }
+}
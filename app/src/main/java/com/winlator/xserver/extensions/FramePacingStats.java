@@ -0,0 +1,81 @@
+package com.winlator.xserver.extensions;
+
+/* Pacing of the frames completed by the Present extension. Interval and jitter are moving averages over roughly the last 16 frames,
+ * a missed frame is a present that completed after its target MSC. */
+public class FramePacingStats {
+    private static final long MAX_INTERVAL = 1000000000L;
+    private long presentedFrames = 0;
+    private long missedFrames = 0;
+    private long skippedFrames = 0;
+    private int queueDepth = 0;
+    private int maxQueueDepth = 0;
+    private long lastPresentTime = -1;
+    private double meanInterval = 0;
+    private double jitter = 0;
+
+    synchronized void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+        if (queueDepth > maxQueueDepth) maxQueueDepth = queueDepth;
+    }
+
+    synchronized void onFramePresented(long timeNanos, boolean missed) {
+        presentedFrames++;
+        if (missed) missedFrames++;
+
+        long interval = lastPresentTime != -1 ? timeNanos - lastPresentTime : 0;
+        lastPresentTime = timeNanos;
+        if (interval <= 0 || interval > MAX_INTERVAL) return;
+
+        if (meanInterval == 0) {
+            meanInterval = interval;
+        }
+        else {
+            jitter += (Math.abs(interval - meanInterval) - jitter) / 16;
+            meanInterval += (interval - meanInterval) / 16;
+        }
+    }
+
+    synchronized void onFrameSkipped() {
+        skippedFrames++;
+    }
+
+    public synchronized long getPresentedFrames() {
+        return presentedFrames;
+    }
+
+    public synchronized long getMissedFrames() {
+        return missedFrames;
+    }
+
+    public synchronized long getSkippedFrames() {
+        return skippedFrames;
+    }
+
+    public synchronized int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /* In milliseconds. */
+    public synchronized float getMeanFrameInterval() {
+        return (float)(meanInterval / 1000000.0);
+    }
+
+    /* In milliseconds. */
+    public synchronized float getFrameIntervalJitter() {
+        return (float)(jitter / 1000000.0);
+    }
+
+    public synchronized void reset() {
+        presentedFrames = 0;
+        missedFrames = 0;
+        skippedFrames = 0;
+        maxQueueDepth = queueDepth;
+        lastPresentTime = -1;
+        meanInterval = 0;
+        jitter = 0;
+    }
+}
@@ -124,7 +124,7 @@ public class MITSHMExtension implements Extension {
                 }
                 break;
             case ClientOpcodes.PUT_IMAGE :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+                try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER, XServer.Lockable.SHMSEGMENT_MANAGER)) {
                     putImage(client, inputStream, outputStream);
                 }
                 break;
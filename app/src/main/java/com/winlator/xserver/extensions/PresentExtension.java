@@ -13,8 +13,11 @@ import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.Pixmap;
 import com.winlator.xserver.Window;
+import com.winlator.xserver.WindowManager;
 import com.winlator.xserver.XClient;
 import com.winlator.xserver.XLock;
+import com.winlator.xserver.XResource;
+import com.winlator.xserver.XResourceManager;
 import com.winlator.xserver.XServer;
 import com.winlator.xserver.errors.BadImplementation;
 import com.winlator.xserver.errors.BadMatch;
@@ -26,17 +29,21 @@ import com.winlator.xserver.events.PresentIdleNotify;
 
 import java.io.IOException;
 
-public class PresentExtension implements Extension {
+/* Presents wait in a queue until the media stream counter reaches their target, the counter advances with the vertical blanks
+ * of a VBlankClock. A pixmap of the size of the window is flipped, the window shows and draws into it until the next present. */
+public class PresentExtension implements Extension, XResourceManager.OnResourceLifecycleListener, WindowManager.OnWindowModificationListener {
     public static final byte MAJOR_OPCODE = -103;
-    private static final int FAKE_INTERVAL = 1000000 / 60;
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
+    private final XServer xServer;
     private final SparseArray<Event> events = new SparseArray<>();
+    private final PresentQueue<PendingPresent> presentQueue = new PresentQueue<>(new QueueCallback());
     private SyncExtension syncExtension;
 
     private static abstract class ClientOpcodes {
         private static final byte QUERY_VERSION = 0;
         private static final byte PRESENT_PIXMAP = 1;
+        private static final byte NOTIFY_MSC = 2;
         private static final byte SELECT_INPUT = 3;
     }
 
@@ -47,6 +54,27 @@ public class PresentExtension implements Extension {
         private Bitmask mask;
     }
 
+    private static class PendingPresent extends PresentQueue.Entry {
+        private final Window window;
+        private final Pixmap pixmap;
+        private short xOff;
+        private short yOff;
+        private int idleFence;
+
+        private PendingPresent(Kind kind, Window window, Pixmap pixmap, int serial) {
+            super(kind, window.id, pixmap != null ? pixmap.id : 0, serial);
+            this.window = window;
+            this.pixmap = pixmap;
+        }
+    }
+
+    public PresentExtension(XServer xServer) {
+        this.xServer = xServer;
+        xServer.windowManager.addOnResourceLifecycleListener(this);
+        xServer.windowManager.addOnWindowModificationListener(this);
+        xServer.pixmapManager.addOnResourceLifecycleListener(this);
+    }
+
     @Override
     public String getName() {
         return "Present";
@@ -67,6 +95,89 @@ public class PresentExtension implements Extension {
         return 0;
     }
 
+    public FramePacingStats getFramePacingStats() {
+        return presentQueue.getFramePacingStats();
+    }
+
+    /* The Choreographer of the display is used unless another clock is set before the first present. */
+    public void setVBlankClock(VBlankClock vblankClock) {
+        presentQueue.setVBlankClock(vblankClock, this::onVBlank);
+    }
+
+    public void release() {
+        presentQueue.release();
+    }
+
+    private void ensureVBlankClock() {
+        if (!presentQueue.hasVBlankClock()) setVBlankClock(new ChoreographerVBlankClock());
+    }
+
+    private void onVBlank(long frameTime) {
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER)) {
+            presentQueue.onVBlank(frameTime);
+        }
+    }
+
+    /* Drawing into the window contents and notifying the clients on behalf of the present queue. */
+    private class QueueCallback implements PresentQueue.Callback<PendingPresent> {
+        @Override
+        public boolean canFlip(PendingPresent present) {
+            Drawable content = present.window.getContent();
+            Drawable drawable = present.pixmap.drawable;
+            return (present.options & PresentQueue.OPTION_COPY) == 0 && present.xOff == 0 && present.yOff == 0 &&
+                   drawable.width == content.width && drawable.height == content.height && drawable.getFlipSource() == null &&
+                   present.window.getMapState() == Window.MapState.VIEWABLE;
+        }
+
+        @Override
+        public void flip(PendingPresent present) {
+            Drawable content = present.window.getContent();
+            synchronized (content.renderLock) {
+                content.flip(present.pixmap.drawable);
+            }
+        }
+
+        @Override
+        public void unflip(PendingPresent flipped, boolean keepContents) {
+            Drawable content = flipped.window.getContent();
+            synchronized (content.renderLock) {
+                content.unflip(keepContents);
+            }
+        }
+
+        @Override
+        public boolean isFlipped(PendingPresent flipped) {
+            Drawable content = flipped.window.getContent();
+            synchronized (content.renderLock) {
+                return content.getFlipSource() == flipped.pixmap.drawable;
+            }
+        }
+
+        @Override
+        public void copy(PendingPresent present) {
+            Drawable content = present.window.getContent();
+            Drawable drawable = present.pixmap.drawable;
+            synchronized (content.renderLock) {
+                content.copyArea((short)0, (short)0, present.xOff, present.yOff, drawable.width, drawable.height, drawable);
+            }
+        }
+
+        @Override
+        public void sendCompleteNotify(PendingPresent present, Mode mode, long ust, long msc) {
+            PresentExtension.this.sendCompleteNotify(present.window, present.serial, present.kind, mode, ust, msc);
+        }
+
+        @Override
+        public void discard(PendingPresent present) {
+            if (present.idleFence != 0) syncExtension.setTriggered(present.idleFence);
+        }
+
+        @Override
+        public void sendIdleNotify(PendingPresent present) {
+            PresentExtension.this.sendIdleNotify(present.window, present.pixmap, present.serial, present.idleFence);
+        }
+    }
+
     private void sendIdleNotify(Window window, Pixmap pixmap, int serial, int idleFence) {
         if (idleFence != 0) syncExtension.setTriggered(idleFence);
 
@@ -114,6 +225,11 @@ public class PresentExtension implements Extension {
         short yOff = inputStream.readShort();
         inputStream.skip(8);
         int idleFence = inputStream.readInt();
+        int options = inputStream.readInt();
+        inputStream.skip(4);
+        long targetMsc = inputStream.readLong();
+        long divisor = inputStream.readLong();
+        long remainder = inputStream.readLong();
         inputStream.skip(client.getRemainingRequestLength());
 
         final Window window = client.xServer.windowManager.getWindow(windowId);
@@ -125,14 +241,28 @@ public class PresentExtension implements Extension {
         Drawable content = window.getContent();
         if (content.visual.depth != pixmap.drawable.visual.depth) throw new BadMatch();
 
-        long ust = System.nanoTime() / 1000;
-        long msc = ust / FAKE_INTERVAL;
+        PendingPresent present = new PendingPresent(Kind.PIXMAP, window, pixmap, serial);
+        present.xOff = xOff;
+        present.yOff = yOff;
+        present.idleFence = idleFence;
+        present.options = options;
+        ensureVBlankClock();
+        presentQueue.queuePresent(present, targetMsc, divisor, remainder);
+    }
 
-        synchronized (content.renderLock) {
-            content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
-            sendIdleNotify(window, pixmap, serial, idleFence);
-            sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
-        }
+    private void notifyMsc(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        int windowId = inputStream.readInt();
+        int serial = inputStream.readInt();
+        inputStream.skip(4);
+        long targetMsc = inputStream.readLong();
+        long divisor = inputStream.readLong();
+        long remainder = inputStream.readLong();
+
+        Window window = client.xServer.windowManager.getWindow(windowId);
+        if (window == null) throw new BadWindow(windowId);
+
+        ensureVBlankClock();
+        presentQueue.queuePresent(new PendingPresent(Kind.MSC_NOTIFY, window, null, serial), targetMsc, divisor, remainder);
     }
 
     private void selectInput(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
@@ -144,6 +274,8 @@ public class PresentExtension implements Extension {
         if (window == null) throw new BadWindow(windowId);
 
         if (GPUImage.isSupported() && !mask.isEmpty()) {
+            presentQueue.unflipWindow(window.id, false);
+
             Drawable content = window.getContent();
             final Texture oldTexture = content.getTexture();
             client.xServer.getRenderer().xServerView.queueEvent(oldTexture::destroy);
@@ -185,6 +317,11 @@ public class PresentExtension implements Extension {
                     presentPixmap(client, inputStream, outputStream);
                 }
                 break;
+            case ClientOpcodes.NOTIFY_MSC:
+                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    notifyMsc(client, inputStream, outputStream);
+                }
+                break;
             case ClientOpcodes.SELECT_INPUT:
                 try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
                     selectInput(client, inputStream, outputStream);
@@ -194,4 +331,25 @@ public class PresentExtension implements Extension {
                 throw new BadImplementation();
         }
     }
+
+    @Override
+    public void onFreeResource(XResource resource) {
+        if (resource instanceof Pixmap) {
+            presentQueue.onFreePixmap(resource.id);
+        }
+        else if (resource instanceof Window) {
+            presentQueue.onFreeWindow(resource.id);
+
+            synchronized (events) {
+                for (int i = events.size()-1; i >= 0; i--) {
+                    if (events.valueAt(i).window == resource) events.removeAt(i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onUpdateWindowGeometry(Window window, boolean resized) {
+        if (resized) presentQueue.onResizeWindow(window.id);
+    }
 }
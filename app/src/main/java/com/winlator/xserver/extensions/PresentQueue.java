@@ -0,0 +1,271 @@
+package com.winlator.xserver.extensions;
+
+import com.winlator.xserver.XResourceMap;
+
+import java.util.ArrayList;
+
+/* Media stream counter and present queue of the Present extension. Windows and pixmaps are only known by id and the drawing and the
+ * events are left to the callback, so the pacing rules can be driven by a SimulatedVBlankClock without a display or clients. */
+class PresentQueue<T extends PresentQueue.Entry> {
+    static final long DEFAULT_REFRESH_INTERVAL = 1000000000L / 60;
+    static final long MIN_REFRESH_INTERVAL = 1000000000L / 240;
+    static final long MAX_REFRESH_INTERVAL = 1000000000L / 24;
+    static final byte OPTION_ASYNC = 1;
+    static final byte OPTION_COPY = 2;
+    private final Callback<T> callback;
+    private final ArrayList<T> pendingPresents = new ArrayList<>();
+    private final XResourceMap<T> flips = new XResourceMap<>();
+    private final FramePacingStats framePacingStats = new FramePacingStats();
+    private VBlankClock vblankClock;
+    private boolean mscStarted = false;
+    private long msc = 0;
+    private long lastVBlankTime = 0;
+    private long refreshInterval = DEFAULT_REFRESH_INTERVAL;
+
+    static class Entry {
+        final PresentExtension.Kind kind;
+        final int windowId;
+        final int pixmapId;
+        final int serial;
+        int options;
+        long targetMsc;
+
+        Entry(PresentExtension.Kind kind, int windowId, int pixmapId, int serial) {
+            this.kind = kind;
+            this.windowId = windowId;
+            this.pixmapId = pixmapId;
+            this.serial = serial;
+        }
+    }
+
+    interface Callback<T> {
+        boolean canFlip(T present);
+
+        void flip(T present);
+
+        /* Only called while the window content still shows the pixmap of the flipped present. */
+        void unflip(T flipped, boolean keepContents);
+
+        /* Whether the window content still shows the pixmap of the flipped present. */
+        boolean isFlipped(T flipped);
+
+        void copy(T present);
+
+        void sendIdleNotify(T present);
+
+        void sendCompleteNotify(T present, PresentExtension.Mode mode, long ust, long msc);
+
+        /* The window of the present was destroyed, nothing can be notified anymore but its idle fence still has to be triggered. */
+        void discard(T present);
+    }
+
+    PresentQueue(Callback<T> callback) {
+        this.callback = callback;
+    }
+
+    FramePacingStats getFramePacingStats() {
+        return framePacingStats;
+    }
+
+    synchronized void setVBlankClock(VBlankClock vblankClock, VBlankClock.OnVBlankListener onVBlankListener) {
+        if (this.vblankClock != null) this.vblankClock.setOnVBlankListener(null);
+        this.vblankClock = vblankClock;
+        vblankClock.setOnVBlankListener(onVBlankListener);
+        if (mscStarted) lastVBlankTime = vblankClock.nanoTime();
+        if (!pendingPresents.isEmpty()) vblankClock.requestVBlank();
+    }
+
+    synchronized boolean hasVBlankClock() {
+        return vblankClock != null;
+    }
+
+    synchronized void release() {
+        if (vblankClock != null) {
+            vblankClock.setOnVBlankListener(null);
+            vblankClock.release();
+            vblankClock = null;
+        }
+    }
+
+    synchronized long getMsc() {
+        return msc;
+    }
+
+    synchronized long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /* After release the time stops at the last signaled vertical blank. */
+    private long nanoTime() {
+        return vblankClock != null ? vblankClock.nanoTime() : lastVBlankTime;
+    }
+
+    /* The counter of the vertical blanks that already happened, including the ones elapsed since the last signaled one. */
+    synchronized long getCurrentMsc() {
+        long now = nanoTime();
+        if (!mscStarted) {
+            lastVBlankTime = now;
+            mscStarted = true;
+        }
+        return msc + Math.max(0, now - lastVBlankTime) / refreshInterval;
+    }
+
+    /* Counts the vertical blanks since the last signaled one and lets the refresh interval follow the display when exactly one passed. */
+    private void advanceMsc(long frameTime) {
+        if (!mscStarted) {
+            lastVBlankTime = frameTime - refreshInterval;
+            mscStarted = true;
+        }
+
+        long elapsed = frameTime - lastVBlankTime;
+        if (elapsed <= 0) return;
+
+        long vblanks = Math.max(1, (elapsed + refreshInterval / 2) / refreshInterval);
+        if (vblanks == 1) {
+            refreshInterval = Math.max(MIN_REFRESH_INTERVAL, Math.min(MAX_REFRESH_INTERVAL, refreshInterval + (elapsed - refreshInterval) / 8));
+        }
+
+        msc += vblanks;
+        lastVBlankTime = frameTime;
+    }
+
+    /* Same rules as the reference server, a target that already passed moves to the next MSC that satisfies divisor and remainder. */
+    static long getTargetMsc(int options, long crtcMsc, long targetMsc, long divisor, long remainder) {
+        if (crtcMsc < targetMsc) return targetMsc;
+
+        boolean async = (options & OPTION_ASYNC) != 0;
+        if (divisor > 0) {
+            targetMsc = crtcMsc - crtcMsc % divisor + Math.abs(remainder % divisor);
+            if (async ? crtcMsc > targetMsc : crtcMsc >= targetMsc) targetMsc += divisor;
+            return targetMsc;
+        }
+        return async ? crtcMsc : crtcMsc + 1;
+    }
+
+    synchronized void onVBlank(long frameTime) {
+        advanceMsc(frameTime);
+        long ust = frameTime / 1000;
+
+        for (int i = 0; i < pendingPresents.size();) {
+            T present = pendingPresents.get(i);
+            if (present.targetMsc <= msc) {
+                pendingPresents.remove(i);
+                executePresent(present, ust, msc);
+            }
+            else i++;
+        }
+
+        framePacingStats.setQueueDepth(pendingPresents.size());
+        if (!pendingPresents.isEmpty() && vblankClock != null) vblankClock.requestVBlank();
+    }
+
+    /* A pixmap present replaces the one of the same window that was queued for the same MSC, the replaced one completes as skipped. */
+    synchronized void queuePresent(T present, long targetMsc, long divisor, long remainder) {
+        long crtcMsc = getCurrentMsc();
+        present.targetMsc = getTargetMsc(present.options, crtcMsc, targetMsc, divisor, remainder);
+
+        if (present.kind == PresentExtension.Kind.PIXMAP) {
+            for (int i = pendingPresents.size()-1; i >= 0; i--) {
+                T pendingPresent = pendingPresents.get(i);
+                if (pendingPresent.kind == PresentExtension.Kind.PIXMAP && pendingPresent.windowId == present.windowId && pendingPresent.targetMsc == present.targetMsc) {
+                    pendingPresents.remove(i);
+                    skipPresent(pendingPresent, crtcMsc);
+                }
+            }
+        }
+
+        if (present.targetMsc <= crtcMsc) {
+            executePresent(present, nanoTime() / 1000, crtcMsc);
+        }
+        else {
+            pendingPresents.add(present);
+            if (vblankClock != null) vblankClock.requestVBlank();
+        }
+        framePacingStats.setQueueDepth(pendingPresents.size());
+    }
+
+    /* A flip keeps its pixmap busy until another pixmap is flipped or the window goes back to its own content. */
+    private void executePresent(T present, long ust, long msc) {
+        if (present.kind == PresentExtension.Kind.MSC_NOTIFY) {
+            callback.sendCompleteNotify(present, PresentExtension.Mode.COPY, ust, msc);
+            return;
+        }
+
+        PresentExtension.Mode mode = callback.canFlip(present) ? PresentExtension.Mode.FLIP : PresentExtension.Mode.COPY;
+        if (mode == PresentExtension.Mode.FLIP) {
+            callback.flip(present);
+
+            T flipped = flips.get(present.windowId);
+            flips.put(present.windowId, present);
+            if (flipped != null && flipped.pixmapId != present.pixmapId) callback.sendIdleNotify(flipped);
+        }
+        else {
+            unflipWindow(present.windowId, true);
+            callback.copy(present);
+            callback.sendIdleNotify(present);
+        }
+
+        callback.sendCompleteNotify(present, mode, ust, msc);
+        framePacingStats.onFramePresented(ust * 1000, msc > present.targetMsc);
+    }
+
+    private void skipPresent(T present, long msc) {
+        callback.sendIdleNotify(present);
+        callback.sendCompleteNotify(present, PresentExtension.Mode.SKIP, nanoTime() / 1000, msc);
+        framePacingStats.onFrameSkipped();
+    }
+
+    synchronized void unflipWindow(int windowId, boolean keepContents) {
+        T flipped = flips.remove(windowId);
+        if (flipped == null) return;
+
+        if (callback.isFlipped(flipped)) callback.unflip(flipped, keepContents);
+        callback.sendIdleNotify(flipped);
+    }
+
+    synchronized void onFreePixmap(int pixmapId) {
+        for (int i = pendingPresents.size()-1; i >= 0; i--) {
+            T present = pendingPresents.get(i);
+            if (present.pixmapId == pixmapId) {
+                pendingPresents.remove(i);
+                skipPresent(present, getCurrentMsc());
+            }
+        }
+
+        ArrayList<T> unflipped = null;
+        for (int i = 0; i < flips.capacity(); i++) {
+            T flipped = flips.valueAt(i);
+            if (flipped != null && flipped.pixmapId == pixmapId) {
+                if (unflipped == null) unflipped = new ArrayList<>();
+                unflipped.add(flipped);
+            }
+        }
+        if (unflipped != null) {
+            for (T flipped : unflipped) unflipWindow(flipped.windowId, true);
+        }
+        framePacingStats.setQueueDepth(pendingPresents.size());
+    }
+
+    synchronized void onFreeWindow(int windowId) {
+        for (int i = pendingPresents.size()-1; i >= 0; i--) {
+            T present = pendingPresents.get(i);
+            if (present.windowId == windowId) {
+                pendingPresents.remove(i);
+                callback.discard(present);
+            }
+        }
+
+        T flipped = flips.remove(windowId);
+        if (flipped != null) callback.discard(flipped);
+        framePacingStats.setQueueDepth(pendingPresents.size());
+    }
+
+    /* A resize reallocates the window content, a flip it no longer shows only has to release its pixmap. */
+    synchronized void onResizeWindow(int windowId) {
+        T flipped = flips.get(windowId);
+        if (flipped != null && !callback.isFlipped(flipped)) {
+            flips.remove(windowId);
+            callback.sendIdleNotify(flipped);
+        }
+    }
+}
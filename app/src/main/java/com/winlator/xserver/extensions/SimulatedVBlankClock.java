@@ -0,0 +1,54 @@
+package com.winlator.xserver.extensions;
+
+/* Virtual display refreshing at a fixed interval whose time only moves when advanced, for reproducible frame pacing without a display. */
+public class SimulatedVBlankClock implements VBlankClock {
+    private final long refreshInterval;
+    private long time = 0;
+    private boolean requested = false;
+    private OnVBlankListener onVBlankListener;
+
+    public SimulatedVBlankClock(long refreshIntervalNanos) {
+        this.refreshInterval = refreshIntervalNanos;
+    }
+
+    @Override
+    public synchronized void setOnVBlankListener(OnVBlankListener onVBlankListener) {
+        this.onVBlankListener = onVBlankListener;
+    }
+
+    @Override
+    public synchronized void requestVBlank() {
+        requested = true;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return time;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /* Moves the time over the given number of vertical blanks and calls the listener at each one that was requested. */
+    public void advance(int vblanks) {
+        for (int i = 0; i < vblanks; i++) {
+            OnVBlankListener onVBlankListener = null;
+            long frameTime;
+            synchronized (this) {
+                time += refreshInterval;
+                frameTime = time;
+                if (requested) {
+                    requested = false;
+                    onVBlankListener = this.onVBlankListener;
+                }
+            }
+            if (onVBlankListener != null) onVBlankListener.onVBlank(frameTime);
+        }
+    }
+
+    /* Moves the time without signaling any vertical blank, like a display that stalled. */
+    public synchronized void stall(long nanos) {
+        time += nanos;
+    }
+}
@@ -0,0 +1,19 @@
+package com.winlator.xserver.extensions;
+
+/* Source of the vertical blanks that drive the media stream counter of the Present extension. */
+public interface VBlankClock {
+    interface OnVBlankListener {
+        void onVBlank(long frameTimeNanos);
+    }
+
+    void setOnVBlankListener(OnVBlankListener onVBlankListener);
+
+    /* Calls the listener once at the next vertical blank, requests made before it happens are coalesced. */
+    void requestVBlank();
+
+    /* Current time in the time base of the frame times passed to the listener. */
+    long nanoTime();
+
+    /* Stops whatever thread delivers the vertical blanks, the clock can no longer be used afterwards. */
+    default void release() {}
+}
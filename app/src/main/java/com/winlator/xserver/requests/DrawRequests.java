@@ -19,6 +19,25 @@ import java.nio.ByteBuffer;
 public abstract class DrawRequests {
     public enum Format {BITMAP, XY_PIXMAP, Z_PIXMAP}
     private enum CoordinateMode {ORIGIN, PREVIOUS}
+    public static final int PUT_IMAGE_HEADER_LENGTH = 20;
+    public static final int PUT_IMAGE_STREAMING_THRESHOLD = 1048576;
+
+    /* Keeps track of a large PutImage request whose rows are drawn as they arrive instead of buffering the whole request. */
+    public static class PutImageStream {
+        private Drawable drawable;
+        private int drawableId;
+        private short dstX;
+        private int dstY;
+        private short width;
+        private byte depth;
+        private int rowLength;
+        private int rowsRemaining;
+        private int remainingLength;
+
+        private PutImageStream(int remainingLength) {
+            this.remainingLength = remainingLength;
+        }
+    }
 
     public static void putImage(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
         Format format = Format.values()[client.getRequestData()];
@@ -64,6 +83,91 @@ public abstract class DrawRequests {
         }
     }
 
+    /* Only 24 and 32 bit Z_PIXMAP images are drawn row by row, other requests are buffered whole and go through putImage. */
+    public static boolean canStreamPutImage(XClient client, XInputStream inputStream) {
+        if (client.getRequestData() != Format.Z_PIXMAP.ordinal()) return false;
+        int position = inputStream.getActivePosition();
+        inputStream.skip(8);
+        short width = inputStream.readShort();
+        short height = inputStream.readShort();
+        inputStream.skip(5);
+        byte depth = inputStream.readByte();
+        inputStream.setActivePosition(position);
+        return (depth == 24 || depth == 32) && width > 0 && height > 0;
+    }
+
+    public static void beginPutImageStream(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
+        Format format = Format.values()[client.getRequestData()];
+        int drawableId = inputStream.readInt();
+        int gcId = inputStream.readInt();
+        short width = inputStream.readShort();
+        short height = inputStream.readShort();
+        short dstX = inputStream.readShort();
+        short dstY = inputStream.readShort();
+        byte leftPad = inputStream.readByte();
+        byte depth = inputStream.readByte();
+        inputStream.skip(2);
+
+        PutImageStream stream = new PutImageStream(client.getRequestLength() - PUT_IMAGE_HEADER_LENGTH);
+        client.setPutImageStream(stream);
+
+        Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
+        if (drawable == null) throw new BadDrawable(drawableId);
+
+        GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+        if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+
+        if (leftPad != 0) throw new BadMatch();
+
+        stream.drawable = drawable;
+        stream.drawableId = drawableId;
+        stream.dstX = dstX;
+        stream.dstY = dstY;
+        stream.width = width;
+        stream.depth = depth;
+        stream.rowLength = width * 4;
+        stream.rowsRemaining = Math.min(height, stream.remainingLength / stream.rowLength);
+    }
+
+    /* Draws the complete rows available in the input stream and skips the request padding, returns false if nothing could be consumed. */
+    public static boolean continuePutImageStream(XClient client, XInputStream inputStream) {
+        PutImageStream stream = client.getPutImageStream();
+        int consumed = 0;
+
+        if (stream.rowsRemaining > 0) {
+            int rows = Math.min(stream.rowsRemaining, inputStream.available() / stream.rowLength);
+            if (rows == 0) return false;
+
+            if (client.xServer.drawableManager.getDrawable(stream.drawableId) == stream.drawable) {
+                Drawable drawable = stream.drawable;
+                int startY = Math.max(stream.dstY, 0);
+                int endY = Math.min(stream.dstY + rows, drawable.height);
+                if (startY < endY) {
+                    int skippedRows = startY - stream.dstY;
+                    short visibleRows = (short)(endY - startY);
+                    inputStream.skip(skippedRows * stream.rowLength);
+                    ByteBuffer data = inputStream.readByteBuffer(visibleRows * stream.rowLength);
+                    drawable.drawImage((short)0, (short)0, stream.dstX, (short)startY, stream.width, visibleRows, stream.depth, data, stream.width, visibleRows);
+                    inputStream.skip((rows - skippedRows - visibleRows) * stream.rowLength);
+                }
+                else inputStream.skip(rows * stream.rowLength);
+            }
+            else inputStream.skip(rows * stream.rowLength);
+
+            consumed = rows * stream.rowLength;
+            stream.dstY += rows;
+            stream.rowsRemaining -= rows;
+            stream.remainingLength -= consumed;
+            if (stream.rowsRemaining > 0) return true;
+        }
+
+        int length = Math.min(stream.remainingLength, inputStream.available());
+        inputStream.skip(length);
+        stream.remainingLength -= length;
+        if (stream.remainingLength == 0) client.setPutImageStream(null);
+        return consumed > 0 || length > 0 || stream.remainingLength == 0;
+    }
+
     public static void getImage(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         Format format = Format.values()[client.getRequestData()];
         int drawableId = inputStream.readInt();
@@ -78,18 +182,21 @@ public abstract class DrawRequests {
         Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
         if (drawable == null) throw new BadDrawable(drawableId);
         int visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
-        ByteBuffer data = drawable.getImage(x, y, width, height);
-        int length = data.limit();
+        int length = width * height * 4;
+        /* Whole rows are sent straight from the drawable, the stream is flushed before the drawable lock is released. */
+        ByteBuffer rows = x == 0 && width == drawable.width ? drawable.getRows(y, height) : null;
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
             outputStream.writeByte(drawable.visual.depth);
             outputStream.writeShort(client.getSequenceNumber());
-            outputStream.writeInt((length + 3) / 4);
+            outputStream.writeInt(length / 4);
             outputStream.writeInt(visualId);
             outputStream.writePad(20);
-            outputStream.write(data);
-            if ((-length & 3) > 0) outputStream.writePad(-length & 3);
+            if (rows != null) {
+                outputStream.write(rows);
+            }
+            else drawable.getImage(x, y, width, height, outputStream.reserve(length));
         }
     }
 
@@ -136,16 +243,9 @@ public abstract class DrawRequests {
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
 
-        short[] points = new short[length / 2];
-        int i = 0;
-        while (length != 0) {
-            points[i++] = inputStream.readShort();
-            points[i++] = inputStream.readShort();
-            length -= 4;
-        }
-
-        if (coordinateMode == CoordinateMode.ORIGIN && graphicsContext.getLineWidth() > 0) {
-            drawable.drawLines(graphicsContext.getForeground(), graphicsContext.getLineWidth(), points);
+        ByteBuffer points = inputStream.readByteBuffer(length);
+        if (graphicsContext.getLineWidth() > 0) {
+            drawable.drawLines(points, length / 4, coordinateMode == CoordinateMode.PREVIOUS, graphicsContext.getForeground(), graphicsContext.getLineWidth());
         }
     }
 
@@ -159,13 +259,7 @@ public abstract class DrawRequests {
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
 
-        while (length != 0) {
-            short x = inputStream.readShort();
-            short y = inputStream.readShort();
-            short width = inputStream.readShort();
-            short height = inputStream.readShort();
-            drawable.fillRect(x, y, width, height, graphicsContext.getBackground());
-            length -= 8;
-        }
+        ByteBuffer rects = inputStream.readByteBuffer(length);
+        drawable.fillRects(rects, length / 8, graphicsContext.getBackground());
     }
 }
\ No newline at end of file
@@ -62,4 +62,14 @@ public abstract class GrabRequests {
         inputStream.skip(4);
         client.xServer.grabManager.deactivatePointerGrab();
     }
+
+    public static void grabServer(XClient client, XInputStream inputStream, XOutputStream outputStream) {
+        client.xServer.setGrabbed(true, client);
+    }
+
+    public static void ungrabServer(XClient client, XInputStream inputStream, XOutputStream outputStream) {
+        if (client.xServer.isGrabbedBy(client)) {
+            client.xServer.setGrabbed(false, null);
+        }
+    }
 }
@@ -25,6 +25,7 @@ import com.winlator.xserver.errors.XRequestError;
 import com.winlator.xserver.events.RawEvent;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public abstract class WindowRequests {
@@ -228,11 +229,11 @@ public abstract class WindowRequests {
                 outputStream.writePad(12);
             }
             else {
-                byte[] data = property.data.array();
+                ByteBuffer data = property.getData();
                 int offset = longOffset * 4;
-                int length = Math.min(data.length - offset, longLength * 4);
+                int length = Math.min(property.length() - offset, longLength * 4);
                 if (length < 0) throw new BadValue(longOffset);
-                bytesAfter = data.length - (offset + length);
+                bytesAfter = property.length() - (offset + length);
 
                 outputStream.writeByte(RESPONSE_CODE_SUCCESS);
                 outputStream.writeByte(property.format.value);
@@ -242,7 +243,7 @@ public abstract class WindowRequests {
                 outputStream.writeInt(bytesAfter);
                 outputStream.writeInt(length / (property.format.value / 8));
                 outputStream.writePad(12);
-                outputStream.write(data, offset, length);
+                outputStream.write(data.array(), data.arrayOffset() + offset, length);
                 if ((-length & 3) > 0) outputStream.writePad(-length & 3);
             }
         }
@@ -260,6 +261,7 @@ public abstract class WindowRequests {
         short rootY = client.xServer.pointer.getClampedY();
         Window child = window.getChildByCoords(rootX, rootY);
         short[] localPoint = window.rootPointToLocal(rootX, rootY);
+        client.resetMotionHints();
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
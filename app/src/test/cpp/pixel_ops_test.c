@@ -0,0 +1,198 @@
+#define _POSIX_C_SOURCE 199309L
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+
+#include "pixel_ops.h"
+
+#define MAX_WIDTH 1031
+#define GUARD 8
+#define GUARD_PIXEL 0xdeadbeef
+#define BENCH_WIDTH 1920
+#define BENCH_ROWS 20000
+
+static const char *GC_FUNCTION_NAMES[] = {"Clear", "And", "AndReverse", "Copy", "AndInverted", "NoOp", "Xor", "Or", "Nor", "Equiv", "Invert", "OrReverse", "CopyInverted", "OrInverted", "Nand", "Set"};
+static const int WIDTHS[] = {0, 1, 2, 3, 4, 5, 7, 8, 9, 15, 16, 17, 31, 33, 63, 65, 127, 129, 640, 1023, MAX_WIDTH};
+static int failures = 0;
+
+static uint32_t randomState = 0x12345678;
+
+static uint32_t nextRandom() {
+    randomState ^= randomState << 13;
+    randomState ^= randomState >> 17;
+    randomState ^= randomState << 5;
+    return randomState;
+}
+
+static void fillRandom(uint32_t *data, int count) {
+    for (int i = 0; i < count; i++) data[i] = nextRandom();
+}
+
+static double now() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+static uint32_t referenceGCFunction(enum GCFunction gcFunction, uint32_t s, uint32_t d) {
+    uint32_t result;
+    switch (gcFunction) {
+        case GCF_CLEAR: result = 0; break;
+        case GCF_AND: result = s & d; break;
+        case GCF_AND_REVERSE: result = s & ~d; break;
+        case GCF_COPY: result = s; break;
+        case GCF_AND_INVERTED: result = ~s & d; break;
+        case GCF_NO_OP: return d;
+        case GCF_XOR: result = s ^ d; break;
+        case GCF_OR: result = s | d; break;
+        case GCF_NOR: result = ~(s | d); break;
+        case GCF_EQUIV: result = ~(s ^ d); break;
+        case GCF_INVERT: result = ~d; break;
+        case GCF_OR_REVERSE: result = s | ~d; break;
+        case GCF_COPY_INVERTED: result = ~s; break;
+        case GCF_OR_INVERTED: result = ~s | d; break;
+        case GCF_NAND: result = ~(s & d); break;
+        case GCF_SET: default: result = 0xffffffff; break;
+    }
+    return (result & 0x00ffffff) | (d & 0xff000000);
+}
+
+/* Rows start one pixel past an aligned address so the SIMD body never relies on alignment, and are followed by guard pixels. */
+static void checkGuard(const char *name, int simd, int width, const uint32_t *row) {
+    for (int i = 0; i < GUARD; i++) {
+        if (row[width + i] != GUARD_PIXEL) {
+            printf("FAIL %s simd=%d width=%d: wrote past the end of the row\n", name, simd, width);
+            failures++;
+            return;
+        }
+    }
+}
+
+static void testCopyRowOp() {
+    static uint32_t src[MAX_WIDTH + 1], dst[MAX_WIDTH + 1 + GUARD], expected[MAX_WIDTH];
+
+    for (int simd = 0; simd <= 1; simd++) {
+        pixelOpsSetSIMDEnabled(simd);
+        for (int f = GCF_CLEAR; f <= GCF_SET; f++) {
+            for (int w = 0; w < (int)(sizeof(WIDTHS) / sizeof(WIDTHS[0])); w++) {
+                int width = WIDTHS[w];
+                fillRandom(src, MAX_WIDTH + 1);
+                fillRandom(dst, MAX_WIDTH + 1);
+                for (int i = 0; i < GUARD; i++) dst[1 + width + i] = GUARD_PIXEL;
+                for (int i = 0; i < width; i++) expected[i] = referenceGCFunction(f, src[1 + i], dst[1 + i]);
+
+                copyRowOp(dst + 1, src + 1, width, f);
+                if (memcmp(dst + 1, expected, width * sizeof(uint32_t)) != 0) {
+                    printf("FAIL copyRowOp %s simd=%d width=%d\n", GC_FUNCTION_NAMES[f], simd, width);
+                    failures++;
+                }
+                checkGuard(GC_FUNCTION_NAMES[f], simd, width, dst + 1);
+            }
+        }
+    }
+}
+
+static void testExpandBitmapRow() {
+    static uint8_t src[(MAX_WIDTH + 7) / 8];
+    static uint32_t dst[MAX_WIDTH + 1 + GUARD], expected[MAX_WIDTH];
+
+    for (int simd = 0; simd <= 1; simd++) {
+        pixelOpsSetSIMDEnabled(simd);
+        for (int w = 0; w < (int)(sizeof(WIDTHS) / sizeof(WIDTHS[0])); w++) {
+            int width = WIDTHS[w];
+            for (int i = 0; i < (int)sizeof(src); i++) src[i] = nextRandom();
+            for (int i = 0; i < width; i++) expected[i] = (src[i / 8] >> (i % 8)) & 1 ? 0xffffff : 0;
+            for (int i = 0; i < GUARD; i++) dst[1 + width + i] = GUARD_PIXEL;
+
+            expandBitmapRow(dst + 1, src, width);
+            if (memcmp(dst + 1, expected, width * sizeof(uint32_t)) != 0) {
+                printf("FAIL expandBitmapRow simd=%d width=%d\n", simd, width);
+                failures++;
+            }
+            checkGuard("expandBitmapRow", simd, width, dst + 1);
+        }
+    }
+}
+
+static void testAlphaMaskPixels() {
+    static uint32_t src[MAX_WIDTH + 1], mask[MAX_WIDTH + 1], dst[MAX_WIDTH + 1 + GUARD], expected[MAX_WIDTH];
+    const uint32_t foreColor = 0x00336699, backColor = 0x80cc9933;
+
+    for (int simd = 0; simd <= 1; simd++) {
+        pixelOpsSetSIMDEnabled(simd);
+        for (int w = 0; w < (int)(sizeof(WIDTHS) / sizeof(WIDTHS[0])); w++) {
+            int width = WIDTHS[w];
+            /* Mostly the WHITE and BLACK pixels that expandBitmapRow produces, with some arbitrary values mixed in. */
+            for (int i = 0; i < MAX_WIDTH + 1; i++) {
+                uint32_t r = nextRandom();
+                src[i] = r & 4 ? r : (r & 1 ? 0xffffff : 0);
+                mask[i] = r & 8 ? r >> 4 : (r & 2 ? 0xffffff : 0);
+            }
+            for (int i = 0; i < width; i++) {
+                expected[i] = mask[1 + i] == 0xffffff ? (src[1 + i] == 0xffffff ? foreColor : backColor) | 0xff000000 : 0;
+            }
+            for (int i = 0; i < GUARD; i++) dst[1 + width + i] = GUARD_PIXEL;
+
+            alphaMaskPixels(dst + 1, src + 1, mask + 1, width, foreColor, backColor);
+            if (memcmp(dst + 1, expected, width * sizeof(uint32_t)) != 0) {
+                printf("FAIL alphaMaskPixels simd=%d width=%d\n", simd, width);
+                failures++;
+            }
+            checkGuard("alphaMaskPixels", simd, width, dst + 1);
+        }
+    }
+}
+
+static void benchmark() {
+    static uint32_t src[BENCH_WIDTH], dst[BENCH_WIDTH], mask[BENCH_WIDTH];
+    static uint8_t bitmap[BENCH_WIDTH / 8];
+    double pixels = (double)BENCH_WIDTH * BENCH_ROWS;
+    double elapsed[2];
+
+    fillRandom(src, BENCH_WIDTH);
+    fillRandom(dst, BENCH_WIDTH);
+    for (int i = 0; i < BENCH_WIDTH; i++) mask[i] = nextRandom() & 1 ? 0xffffff : 0;
+    for (int i = 0; i < (int)sizeof(bitmap); i++) bitmap[i] = nextRandom();
+
+    static const enum GCFunction functions[] = {GCF_COPY, GCF_XOR, GCF_AND_INVERTED, GCF_NAND};
+    for (int f = 0; f < (int)(sizeof(functions) / sizeof(functions[0])); f++) {
+        for (int simd = 0; simd <= 1; simd++) {
+            pixelOpsSetSIMDEnabled(simd);
+            double startTime = now();
+            for (int row = 0; row < BENCH_ROWS; row++) copyRowOp(dst, src, BENCH_WIDTH, functions[f]);
+            elapsed[simd] = now() - startTime;
+        }
+        printf("copyRowOp %-12s scalar %8.1f Mpx/s  simd %8.1f Mpx/s\n", GC_FUNCTION_NAMES[functions[f]], pixels / elapsed[0] / 1e6, pixels / elapsed[1] / 1e6);
+    }
+
+    for (int simd = 0; simd <= 1; simd++) {
+        pixelOpsSetSIMDEnabled(simd);
+        double startTime = now();
+        for (int row = 0; row < BENCH_ROWS; row++) expandBitmapRow(dst, bitmap, BENCH_WIDTH);
+        elapsed[simd] = now() - startTime;
+    }
+    printf("expandBitmapRow        scalar %8.1f Mpx/s  simd %8.1f Mpx/s\n", pixels / elapsed[0] / 1e6, pixels / elapsed[1] / 1e6);
+
+    for (int simd = 0; simd <= 1; simd++) {
+        pixelOpsSetSIMDEnabled(simd);
+        double startTime = now();
+        for (int row = 0; row < BENCH_ROWS; row++) alphaMaskPixels(dst, src, mask, BENCH_WIDTH, 0x336699, 0xcc9933);
+        elapsed[simd] = now() - startTime;
+    }
+    printf("alphaMaskPixels        scalar %8.1f Mpx/s  simd %8.1f Mpx/s\n", pixels / elapsed[0] / 1e6, pixels / elapsed[1] / 1e6);
+}
+
+int main(int argc, char **argv) {
+    pixelOpsSetSIMDEnabled(1);
+    if (!pixelOpsIsSIMDEnabled()) printf("SIMD is not available on this host, both passes run the scalar kernels\n");
+
+    testCopyRowOp();
+    testExpandBitmapRow();
+    testAlphaMaskPixels();
+    if (failures == 0) printf("pixel_ops: all cases passed\n");
+
+    if (argc < 2 || strcmp(argv[1], "--no-benchmark") != 0) benchmark();
+    return failures == 0 ? EXIT_SUCCESS : EXIT_FAILURE;
+}
@@ -0,0 +1,95 @@
+package com.winlator.xserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AtomTest {
+    @Test
+    public void predefinedAtoms() {
+        assertEquals(0, Atom.getId(null));
+        assertEquals(4, Atom.getId("ATOM"));
+        assertEquals("WM_CLASS", Atom.getName(67));
+        assertEquals(68, Atom.internAtom("WM_TRANSIENT_FOR"));
+        assertNull(Atom.getName(0));
+        assertFalse(Atom.isValid(0));
+    }
+
+    @Test
+    public void internIsIdempotent() {
+        int id = Atom.internAtom("ATOM_TEST_IDEMPOTENT");
+        assertEquals(id, Atom.internAtom("ATOM_TEST_IDEMPOTENT"));
+        assertEquals(id, Atom.getId("ATOM_TEST_IDEMPOTENT"));
+        assertEquals("ATOM_TEST_IDEMPOTENT", Atom.getName(id));
+        assertTrue(Atom.isValid(id));
+        assertEquals(-1, Atom.getId("ATOM_TEST_NEVER_INTERNED"));
+    }
+
+    @Test
+    public void idIsNeverVisibleBeforeName() throws InterruptedException {
+        final int atoms = 20000;
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final CountDownLatch started = new CountDownLatch(2);
+
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread(() -> {
+                started.countDown();
+                int i = 0;
+                while (!done.get() && failure.get() == null) {
+                    String name = "ATOM_TEST_RACE_"+i;
+                    int id = Atom.getId(name);
+                    if (id != -1) {
+                        if (!Atom.isValid(id) || !name.equals(Atom.getName(id))) failure.set(name+" -> "+id+" -> "+Atom.getName(id));
+                        i = (i + 1) % atoms;
+                    }
+                }
+            });
+            readers[r].start();
+        }
+
+        started.await();
+        for (int i = 0; i < atoms; i++) Atom.internAtom("ATOM_TEST_RACE_"+i);
+        done.set(true);
+        for (Thread reader : readers) reader.join();
+        assertNull(failure.get(), failure.get());
+    }
+
+    @Test
+    public void internAtomThroughput() {
+        final int names = 4096;
+        final int rounds = 200;
+        String[] keys = new String[names];
+        for (int i = 0; i < names; i++) keys[i] = "ATOM_TEST_BENCH_"+i;
+
+        long startTime = System.nanoTime();
+        for (String key : keys) Atom.internAtom(key);
+        long internNanos = System.nanoTime() - startTime;
+
+        int sum = 0;
+        startTime = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String key : keys) sum += Atom.internAtom(key);
+        }
+        long lookupNanos = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (String key : keys) sum += Atom.getName(Atom.getId(key)).length();
+        }
+        long roundTripNanos = System.nanoTime() - startTime;
+
+        assertTrue(sum != 0);
+        long lookups = (long)names * rounds;
+        System.out.printf("InternAtom: new %.1f ns/op, existing %.1f ns/op, getId+getName %.1f ns/op%n",
+            (double)internNanos / names, (double)lookupNanos / lookups, (double)roundTripNanos / lookups);
+    }
+}
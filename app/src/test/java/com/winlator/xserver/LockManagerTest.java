@@ -0,0 +1,223 @@
+package com.winlator.xserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LockManagerTest {
+    private static final int WINDOW_MANAGER = LockManager.maskOf(XServer.Lockable.WINDOW_MANAGER);
+    private static final int DRAW_REQUEST = LockManager.maskOf(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER);
+
+    private static com.sun.management.ThreadMXBean getAllocationCounter() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean)threadMXBean;
+        Assume.assumeTrue(allocationCounter.isThreadAllocatedMemorySupported());
+        allocationCounter.setThreadAllocatedMemoryEnabled(true);
+        return allocationCounter;
+    }
+
+    private static void lockAndUnlock(LockManager lockManager, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            try (XLock lock = lockManager.lock(WINDOW_MANAGER, false)) {}
+            try (XLock lock = lockManager.lock(WINDOW_MANAGER, true)) {}
+            try (XLock lock = lockManager.lock(DRAW_REQUEST, false)) {}
+            try (XLock lock = lockManager.lock(DRAW_REQUEST, true)) {}
+            try (XLock lock = lockManager.lock(LockManager.allMask(), false)) {}
+        }
+    }
+
+    /* Every request of every client goes through here, so taking and releasing locks must not allocate. */
+    @Test
+    public void lockingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean allocationCounter = getAllocationCounter();
+        long threadId = Thread.currentThread().getId();
+        LockManager lockManager = new LockManager();
+        lockManager.setLockOrderCheckEnabled(true);
+
+        lockAndUnlock(lockManager, 100000);
+        long allocatedBefore = allocationCounter.getThreadAllocatedBytes(threadId);
+        lockAndUnlock(lockManager, 1000000);
+        long allocated = allocationCounter.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.println("LockManager: "+allocated+" bytes allocated over 5000000 lock/unlock pairs");
+        assertTrue("allocated "+allocated+" bytes", allocated < 4096);
+    }
+
+    @Test
+    public void lockSetsAreReused() {
+        LockManager lockManager = new LockManager();
+        XLock first = lockManager.lock(DRAW_REQUEST, true);
+        first.close();
+        XLock second = lockManager.lock(DRAW_REQUEST, true);
+        second.close();
+        assertSame(first, second);
+    }
+
+    @Test
+    public void lockOrderIsChecked() {
+        LockManager lockManager = new LockManager();
+        lockManager.setLockOrderCheckEnabled(true);
+
+        try (XLock lock = lockManager.lock(LockManager.maskOf(XServer.Lockable.DRAWABLE_MANAGER), false)) {
+            lockManager.lock(WINDOW_MANAGER, false);
+            fail("expected a lock order violation");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Lock order violation"));
+        }
+
+        try (XLock lock = lockManager.lock(WINDOW_MANAGER, true)) {
+            lockManager.lock(WINDOW_MANAGER, false);
+            fail("expected a refused upgrade");
+        }
+        catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("Cannot upgrade"));
+        }
+
+        try (XLock lock = lockManager.lock(WINDOW_MANAGER, false)) {
+            try (XLock nested = lockManager.lock(DRAW_REQUEST, false)) {}
+        }
+    }
+
+    @Test
+    public void sharedLocksDoNotExcludeEachOther() throws InterruptedException {
+        LockManager lockManager = new LockManager();
+        CountDownLatch locked = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Runnable reader = () -> {
+            try (XLock lock = lockManager.lock(DRAW_REQUEST, true)) {
+                locked.countDown();
+                release.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        Thread thread1 = new Thread(reader);
+        Thread thread2 = new Thread(reader);
+        thread1.start();
+        thread2.start();
+
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        assertEquals(0, lockManager.getContendedLockCount(XServer.Lockable.WINDOW_MANAGER));
+
+        CountDownLatch writerLocked = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try (XLock lock = lockManager.lock(WINDOW_MANAGER, false)) {
+                writerLocked.countDown();
+            }
+        });
+        writer.start();
+        assertFalse(writerLocked.await(100, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(writerLocked.await(5, TimeUnit.SECONDS));
+        thread1.join();
+        thread2.join();
+        writer.join();
+        assertEquals(1, lockManager.getContendedLockCount(XServer.Lockable.WINDOW_MANAGER));
+    }
+
+    private static final int GET_PROPERTY = WINDOW_MANAGER;
+    private static final int RENDER = LockManager.maskOf(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.DRAWABLE_MANAGER);
+
+    private static void work(int nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) Thread.onSpinWait();
+    }
+
+    /* Runs the given number of client threads for a fixed time, each repeatedly taking the lock set of a read-only request,
+     * and reports requests per second and the highest number of clients seen inside the lock at once. */
+    private static long[] runClients(LockManager lockManager, int clients, boolean shared, int holdNanos, long durationMillis) throws InterruptedException {
+        AtomicLong requests = new AtomicLong();
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        Thread[] threads = new Thread[clients];
+        for (int i = 0; i < clients; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+
+                long count = 0;
+                while (System.nanoTime() < deadline) {
+                    try (XLock lock = lockManager.lock(GET_PROPERTY, shared)) {
+                        int current = holders.incrementAndGet();
+                        maxHolders.accumulateAndGet(current, Math::max);
+                        work(holdNanos);
+                        holders.decrementAndGet();
+                    }
+                    count++;
+                }
+                requests.addAndGet(count);
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        return new long[]{requests.get() * 1000 / durationMillis, maxHolders.get()};
+    }
+
+    /* Read-only requests of several clients under shared locks against the same load under exclusive locks, as every request
+     * was dispatched before. This measures the locks only, requests are still dispatched from a single reactor thread. */
+    @Test
+    public void contentionBenchmark() throws InterruptedException {
+        int processors = Runtime.getRuntime().availableProcessors();
+        LockManager lockManager = new LockManager();
+        for (int clients = 1; clients <= Math.min(4, Math.max(2, processors)); clients *= 2) {
+            long[] exclusive = runClients(lockManager, clients, false, 2000, 200);
+            long[] shared = runClients(lockManager, clients, true, 2000, 200);
+            System.out.printf("LockManager %d clients: exclusive %d req/s (max %d inside), shared %d req/s (max %d inside)%n",
+                clients, exclusive[0], exclusive[1], shared[0], shared[1]);
+
+            assertEquals(1, exclusive[1]);
+            if (clients > 1 && processors > 1) assertTrue(shared[1] > 1);
+        }
+    }
+
+    /* The renderer and input injection keep running while clients hold shared locks, only the exclusive side waits. */
+    @Test
+    public void rendererProgressesAlongsideReadOnlyClients() throws InterruptedException {
+        Assume.assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+        LockManager lockManager = new LockManager();
+        AtomicLong frames = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+
+        Thread renderer = new Thread(() -> {
+            while (System.nanoTime() < deadline) {
+                try (XLock lock = lockManager.lock(RENDER, true)) {
+                    work(50000);
+                }
+                frames.incrementAndGet();
+            }
+        });
+        renderer.start();
+        long[] clients = runClients(lockManager, 2, true, 2000, 200);
+        renderer.join();
+
+        System.out.printf("LockManager renderer: %d frames while clients made %d req/s%n", frames.get(), clients[0]);
+        assertTrue(frames.get() > 0);
+        assertTrue(clients[0] > 0);
+    }
+}
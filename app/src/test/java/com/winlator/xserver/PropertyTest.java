@@ -0,0 +1,118 @@
+package com.winlator.xserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class PropertyTest {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int TOTAL_SIZE = 1 << 20;
+
+    private static byte[] chunk(int index, int size) {
+        byte[] chunk = new byte[size];
+        Arrays.fill(chunk, (byte)index);
+        return chunk;
+    }
+
+    private static byte[] contents(Property property) {
+        ByteBuffer data = property.getData();
+        return Arrays.copyOfRange(data.array(), data.arrayOffset(), data.arrayOffset() + property.length());
+    }
+
+    @Test
+    public void replaceAppendPrepend() {
+        Property property = new Property(Atom.getId("WM_NAME"), Atom.getId("STRING"), Property.Format.BYTE_ARRAY, "b".getBytes(StandardCharsets.UTF_8));
+        assertEquals("b", property.toString());
+        property.append("c".getBytes(StandardCharsets.UTF_8));
+        assertEquals("bc", property.toString());
+        property.prepend("a".getBytes(StandardCharsets.UTF_8));
+        assertEquals("abc", property.toString());
+        assertEquals(3, property.length());
+        property.replace(null);
+        assertEquals("", property.toString());
+        assertEquals(0, property.getData().capacity());
+    }
+
+    @Test
+    public void intValuesAreLittleEndian() {
+        Property property = new Property(Atom.getId("_NET_WM_PID"), Atom.getId("CARDINAL"), Property.Format.INT_ARRAY, new byte[]{1, 2, 0, 0});
+        assertEquals(0x0201, property.getInt(0));
+        property.append(new byte[]{3, 0, 0, 0});
+        assertEquals(3, property.getInt(1));
+        assertEquals("513,3", property.toString());
+    }
+
+    @Test
+    public void unknownAtomDecodesToEmptyString() {
+        Property property = new Property(Atom.getId("WM_NAME"), Atom.getId("ATOM"), Property.Format.INT_ARRAY, new byte[]{(byte)0xff, (byte)0xff, (byte)0xff, 0x7f});
+        assertEquals("", property.toString());
+        property.replace(new byte[]{4, 0, 0, 0});
+        assertEquals("ATOM", property.toString());
+        property.replace(new byte[0]);
+        assertEquals("", property.toString());
+    }
+
+    @Test
+    public void viewIsBuiltWhenTheValueChanges() {
+        Property property = new Property(Atom.getId("WM_NAME"), Atom.getId("STRING"), Property.Format.BYTE_ARRAY, new byte[]{1});
+        ByteBuffer data = property.getData();
+        assertSame(data, property.getData());
+        property.append(new byte[]{2});
+        ByteBuffer appended = property.getData();
+        assertEquals(2, appended.capacity());
+        assertSame(appended, property.getData());
+        assertSame(property.toString(), property.toString());
+    }
+
+    /* 1 MB appended in 4 KB chunks, the way large clipboard and icon properties arrive. Growing in place copies each byte a few times,
+     * replacing the whole value on every chunk, as it used to be done, copies it once per later chunk. */
+    @Test
+    public void appendOneMegabyteInChunks() {
+        int chunks = TOTAL_SIZE / CHUNK_SIZE;
+        byte[] expected = new byte[TOTAL_SIZE];
+        for (int i = 0; i < chunks; i++) Arrays.fill(expected, i * CHUNK_SIZE, (i + 1) * CHUNK_SIZE, (byte)i);
+
+        long appendNanos = Long.MAX_VALUE;
+        long replaceNanos = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long startTime = System.nanoTime();
+            Property property = new Property(Atom.getId("WM_NAME"), Atom.getId("STRING"), Property.Format.BYTE_ARRAY, null);
+            for (int i = 0; i < chunks; i++) property.append(chunk(i, CHUNK_SIZE));
+            appendNanos = Math.min(appendNanos, System.nanoTime() - startTime);
+            assertArrayEquals(expected, contents(property));
+
+            startTime = System.nanoTime();
+            property = new Property(Atom.getId("WM_NAME"), Atom.getId("STRING"), Property.Format.BYTE_ARRAY, null);
+            for (int i = 0; i < chunks; i++) {
+                byte[] value = Arrays.copyOf(contents(property), property.length() + CHUNK_SIZE);
+                System.arraycopy(chunk(i, CHUNK_SIZE), 0, value, property.length(), CHUNK_SIZE);
+                property.replace(value);
+            }
+            replaceNanos = Math.min(replaceNanos, System.nanoTime() - startTime);
+            assertArrayEquals(expected, contents(property));
+        }
+
+        System.out.printf("Property 1 MB in 4 KB chunks: append %.2f ms, replace with concatenated value %.2f ms%n", appendNanos / 1e6, replaceNanos / 1e6);
+    }
+
+    @Test
+    public void prependOneMegabyteInChunks() {
+        int chunks = TOTAL_SIZE / CHUNK_SIZE;
+        byte[] expected = new byte[TOTAL_SIZE];
+        for (int i = 0; i < chunks; i++) Arrays.fill(expected, TOTAL_SIZE - (i + 1) * CHUNK_SIZE, TOTAL_SIZE - i * CHUNK_SIZE, (byte)i);
+
+        long startTime = System.nanoTime();
+        Property property = new Property(Atom.getId("WM_NAME"), Atom.getId("STRING"), Property.Format.BYTE_ARRAY, null);
+        for (int i = 0; i < chunks; i++) property.prepend(chunk(i, CHUNK_SIZE));
+        long prependNanos = System.nanoTime() - startTime;
+        assertArrayEquals(expected, contents(property));
+
+        System.out.printf("Property 1 MB in 4 KB chunks: prepend %.2f ms%n", prependNanos / 1e6);
+    }
+}
@@ -0,0 +1,121 @@
+package com.winlator.xserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class XResourceMapTest {
+    private static void assertSameContents(HashMap<Integer, Integer> expected, XResourceMap<Integer> map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertSame(entry.getValue(), map.get(entry.getKey()));
+        }
+
+        int slots = 0;
+        for (int i = 0; i < map.capacity(); i++) {
+            Integer value = map.valueAt(i);
+            if (value != null) slots++;
+        }
+        assertEquals(expected.size(), slots);
+    }
+
+    private static void churn(long seed, int operations, int keySpace, int keyBase, int keyStride) {
+        Random random = new Random(seed);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        XResourceMap<Integer> map = new XResourceMap<>();
+
+        for (int i = 0; i < operations; i++) {
+            int key = keyBase + random.nextInt(keySpace) * keyStride;
+            int operation = random.nextInt(10);
+            if (operation < 5) {
+                Integer value = Integer.valueOf(i);
+                expected.put(key, value);
+                map.put(key, value);
+            }
+            else if (operation < 9) {
+                assertSame(expected.remove(key), map.remove(key));
+            }
+            else {
+                assertSame(expected.get(key), map.get(key));
+                assertEquals(expected.containsKey(key), map.containsKey(key));
+            }
+
+            assertEquals(expected.size(), map.size());
+            if (i % 1000 == 0) assertSameContents(expected, map);
+        }
+        assertSameContents(expected, map);
+    }
+
+    @Test
+    public void putGetRemove() {
+        XResourceMap<String> map = new XResourceMap<>();
+        assertNull(map.get(1));
+        map.put(1, "a");
+        map.put(2, "b");
+        assertEquals("a", map.get(1));
+        map.put(1, "c");
+        assertEquals("c", map.get(1));
+        assertEquals(2, map.size());
+        assertEquals("c", map.remove(1));
+        assertNull(map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertTrue(map.containsKey(2));
+        map.put(2, null);
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void churnAgainstHashMap() {
+        churn(1, 200000, 40, 0, 1);
+        churn(2, 200000, 200, 0, 1);
+        churn(3, 200000, 5000, 0, 1);
+    }
+
+    /* Resource ids are allocated from a per-client base, so ids that differ only in their high bits must also survive churn. */
+    @Test
+    public void churnWithClientIdRanges() {
+        churn(4, 200000, 300, 0x00200000, 1);
+        churn(5, 200000, 300, 0x00400000, 0x00200000);
+        churn(6, 200000, 300, 0, 64);
+    }
+
+    /* A small table kept close to its load limit makes probe chains wrap around the end of the slot array,
+     * which is the case the backward shift has to handle specially. */
+    @Test
+    public void backwardShiftAcrossWrapAround() {
+        Random random = new Random(7);
+        HashMap<Integer, Integer> expected = new HashMap<>();
+        XResourceMap<Integer> map = new XResourceMap<>();
+        int[] live = new int[32];
+        for (int i = 0; i < live.length; i++) {
+            live[i] = random.nextInt();
+            expected.put(live[i], i);
+            map.put(live[i], expected.get(live[i]));
+        }
+        assertEquals(64, map.capacity());
+
+        for (int i = 0; i < 100000; i++) {
+            int slot = random.nextInt(live.length);
+            assertSame(expected.remove(live[slot]), map.remove(live[slot]));
+            live[slot] = random.nextInt();
+            Integer value = Integer.valueOf(i);
+            expected.put(live[slot], value);
+            map.put(live[slot], value);
+            if (i % 100 == 0) assertSameContents(expected, map);
+        }
+        assertEquals(64, map.capacity());
+        assertSameContents(expected, map);
+
+        map.clear();
+        assertEquals(0, map.size());
+        for (int key : live) assertNull(map.get(key));
+    }
+}
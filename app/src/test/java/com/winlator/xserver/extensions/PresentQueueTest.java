@@ -0,0 +1,357 @@
+package com.winlator.xserver.extensions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+public class PresentQueueTest {
+    private static final long REFRESH_INTERVAL = PresentQueue.DEFAULT_REFRESH_INTERVAL;
+    private final ArrayList<String> log = new ArrayList<>();
+    private final HashMap<Integer, Integer> shownPixmaps = new HashMap<>();
+    private PresentQueue<PresentQueue.Entry> queue;
+    private SimulatedVBlankClock clock;
+
+    /* Records what the queue asks for, a present with OPTION_COPY set cannot be flipped. */
+    private class RecordingCallback implements PresentQueue.Callback<PresentQueue.Entry> {
+        @Override
+        public boolean canFlip(PresentQueue.Entry present) {
+            return (present.options & PresentQueue.OPTION_COPY) == 0;
+        }
+
+        @Override
+        public void flip(PresentQueue.Entry present) {
+            shownPixmaps.put(present.windowId, present.pixmapId);
+            log.add("flip "+present.serial);
+        }
+
+        @Override
+        public void unflip(PresentQueue.Entry flipped, boolean keepContents) {
+            shownPixmaps.remove(flipped.windowId);
+            log.add("unflip "+flipped.serial+(keepContents ? " keep" : ""));
+        }
+
+        @Override
+        public boolean isFlipped(PresentQueue.Entry flipped) {
+            Integer pixmapId = shownPixmaps.get(flipped.windowId);
+            return pixmapId != null && pixmapId == flipped.pixmapId;
+        }
+
+        @Override
+        public void copy(PresentQueue.Entry present) {
+            log.add("copy "+present.serial);
+        }
+
+        @Override
+        public void sendIdleNotify(PresentQueue.Entry present) {
+            log.add("idle "+present.serial);
+        }
+
+        @Override
+        public void sendCompleteNotify(PresentQueue.Entry present, PresentExtension.Mode mode, long ust, long msc) {
+            log.add("complete "+present.serial+" "+mode+" msc="+msc+" ust="+ust);
+        }
+
+        @Override
+        public void discard(PresentQueue.Entry present) {
+            log.add("discard "+present.serial);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        queue = new PresentQueue<>(new RecordingCallback());
+        clock = new SimulatedVBlankClock(REFRESH_INTERVAL);
+        queue.setVBlankClock(clock, queue::onVBlank);
+    }
+
+    private static PresentQueue.Entry pixmapPresent(int windowId, int pixmapId, int serial, int options) {
+        PresentQueue.Entry present = new PresentQueue.Entry(PresentExtension.Kind.PIXMAP, windowId, pixmapId, serial);
+        present.options = options;
+        return present;
+    }
+
+    private void assertLog(String... expected) {
+        assertEquals(Arrays.asList(expected), new ArrayList<>(log));
+        log.clear();
+    }
+
+    private static String ust(int vblanks) {
+        return "ust="+(vblanks * REFRESH_INTERVAL / 1000);
+    }
+
+    @Test
+    public void targetMsc() {
+        assertEquals(12, PresentQueue.getTargetMsc(0, 10, 12, 0, 0));
+        assertEquals(11, PresentQueue.getTargetMsc(0, 10, 0, 0, 0));
+        assertEquals(10, PresentQueue.getTargetMsc(PresentQueue.OPTION_ASYNC, 10, 0, 0, 0));
+        assertEquals(11, PresentQueue.getTargetMsc(0, 10, 10, 0, 0));
+    }
+
+    @Test
+    public void targetMscWithDivisorAndRemainder() {
+        assertEquals(13, PresentQueue.getTargetMsc(0, 10, 0, 4, 1));
+        assertEquals(12, PresentQueue.getTargetMsc(0, 10, 0, 4, 0));
+        assertEquals(14, PresentQueue.getTargetMsc(0, 10, 0, 4, 2));
+        assertEquals(13, PresentQueue.getTargetMsc(0, 9, 3, 4, 1));
+        assertEquals(9, PresentQueue.getTargetMsc(PresentQueue.OPTION_ASYNC, 9, 3, 4, 1));
+        assertEquals(15, PresentQueue.getTargetMsc(0, 12, 0, 4, -3));
+        assertEquals(20, PresentQueue.getTargetMsc(0, 12, 20, 4, 1));
+    }
+
+    @Test
+    public void presentCompletesAtTargetMsc() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 3, 0, 0);
+        assertLog();
+
+        clock.advance(2);
+        assertLog();
+        assertEquals(2, queue.getMsc());
+
+        clock.advance(1);
+        assertLog("flip 1", "complete 1 FLIP msc=3 "+ust(3));
+        assertEquals(0, queue.getFramePacingStats().getQueueDepth());
+        assertEquals(1, queue.getFramePacingStats().getPresentedFrames());
+        assertEquals(0, queue.getFramePacingStats().getMissedFrames());
+
+        clock.advance(5);
+        assertLog();
+        assertEquals(3, queue.getMsc());
+    }
+
+    @Test
+    public void divisorAndRemainderAreAppliedToPassedTargets() {
+        queue.getCurrentMsc();
+        clock.advance(5);
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 0, 4, 2);
+        assertEquals(5, queue.getCurrentMsc());
+        assertLog();
+
+        clock.advance(1);
+        assertLog("flip 1", "complete 1 FLIP msc=6 "+ust(6));
+
+        queue.queuePresent(pixmapPresent(1, 11, 2, 0), 0, 4, 2);
+        clock.advance(3);
+        assertLog();
+        clock.advance(1);
+        assertLog("flip 2", "idle 1", "complete 2 FLIP msc=10 "+ust(10));
+    }
+
+    @Test
+    public void passedTargetWithAsyncExecutesImmediately() {
+        queue.getCurrentMsc();
+        clock.stall(2 * REFRESH_INTERVAL);
+        queue.queuePresent(pixmapPresent(1, 10, 1, PresentQueue.OPTION_ASYNC | PresentQueue.OPTION_COPY), 1, 0, 0);
+        assertLog("copy 1", "idle 1", "complete 1 COPY msc=2 "+ust(2));
+    }
+
+    @Test
+    public void notifyMscCompletesWithoutDrawing() {
+        queue.queuePresent(new PresentQueue.Entry(PresentExtension.Kind.MSC_NOTIFY, 1, 0, 7), 2, 0, 0);
+        clock.advance(2);
+        assertLog("complete 7 COPY msc=2 "+ust(2));
+        assertEquals(0, queue.getFramePacingStats().getPresentedFrames());
+    }
+
+    @Test
+    public void presentForTheSameMscSkipsThePreviousOne() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 2, 0, 0);
+        queue.queuePresent(pixmapPresent(2, 20, 2, 0), 2, 0, 0);
+        queue.queuePresent(pixmapPresent(1, 11, 3, 0), 3, 0, 0);
+        assertLog();
+
+        queue.queuePresent(pixmapPresent(1, 12, 4, 0), 2, 0, 0);
+        assertLog("idle 1", "complete 1 SKIP msc=0 ust=0");
+        assertEquals(1, queue.getFramePacingStats().getSkippedFrames());
+        assertEquals(3, queue.getFramePacingStats().getQueueDepth());
+
+        clock.advance(2);
+        assertLog("flip 2", "complete 2 FLIP msc=2 "+ust(2), "flip 4", "complete 4 FLIP msc=2 "+ust(2));
+        clock.advance(1);
+        assertLog("flip 3", "idle 4", "complete 3 FLIP msc=3 "+ust(3));
+    }
+
+    @Test
+    public void flipKeepsPixmapBusyUntilReplaced() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 1, 0, 0);
+        clock.advance(1);
+        assertLog("flip 1", "complete 1 FLIP msc=1 "+ust(1));
+
+        /* Flipping the same pixmap again does not release it. */
+        queue.queuePresent(pixmapPresent(1, 10, 2, 0), 2, 0, 0);
+        clock.advance(1);
+        assertLog("flip 2", "complete 2 FLIP msc=2 "+ust(2));
+
+        queue.queuePresent(pixmapPresent(1, 11, 3, 0), 3, 0, 0);
+        clock.advance(1);
+        assertLog("flip 3", "idle 2", "complete 3 FLIP msc=3 "+ust(3));
+
+        /* A copy takes the window back to its own content, releasing the flipped pixmap, and its own pixmap is idle at once. */
+        queue.queuePresent(pixmapPresent(1, 12, 4, PresentQueue.OPTION_COPY), 4, 0, 0);
+        clock.advance(1);
+        assertLog("unflip 3 keep", "idle 3", "copy 4", "idle 4", "complete 4 COPY msc=4 "+ust(4));
+    }
+
+    @Test
+    public void unflipWindow() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 1, 0, 0);
+        clock.advance(1);
+        log.clear();
+
+        queue.unflipWindow(1, false);
+        assertLog("unflip 1", "idle 1");
+        queue.unflipWindow(1, false);
+        assertLog();
+    }
+
+    @Test
+    public void freeingFlippedPixmapUnflipsEveryWindow() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 1, 0, 0);
+        queue.queuePresent(pixmapPresent(2, 10, 2, 0), 1, 0, 0);
+        queue.queuePresent(pixmapPresent(3, 10, 3, 0), 3, 0, 0);
+        clock.advance(1);
+        log.clear();
+
+        queue.onFreePixmap(10);
+        List<String> entries = new ArrayList<>(log);
+        log.clear();
+        assertEquals(6, entries.size());
+        assertEquals("idle 3", entries.get(0));
+        assertEquals("complete 3 SKIP msc=1 "+ust(1), entries.get(1));
+        assertTrue(entries.containsAll(Arrays.asList("unflip 1 keep", "idle 1", "unflip 2 keep", "idle 2")));
+        assertEquals(0, queue.getFramePacingStats().getQueueDepth());
+    }
+
+    @Test
+    public void destroyedWindowDiscardsItsPresents() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 1, 0, 0);
+        queue.queuePresent(pixmapPresent(1, 11, 2, 0), 2, 0, 0);
+        clock.advance(1);
+        log.clear();
+
+        queue.onFreeWindow(1);
+        assertLog("discard 2", "discard 1");
+        clock.advance(2);
+        assertLog();
+    }
+
+    @Test
+    public void resizeReleasesFlipTheContentNoLongerShows() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 1, 0, 0);
+        clock.advance(1);
+        log.clear();
+
+        queue.onResizeWindow(1);
+        assertLog();
+
+        shownPixmaps.remove(1);
+        queue.onResizeWindow(1);
+        assertLog("idle 1");
+        queue.unflipWindow(1, true);
+        assertLog();
+    }
+
+    @Test
+    public void currentMscCountsVBlanksThatWereNotSignaled() {
+        assertEquals(0, queue.getCurrentMsc());
+        clock.stall(REFRESH_INTERVAL / 2);
+        assertEquals(0, queue.getCurrentMsc());
+        clock.stall(3 * REFRESH_INTERVAL - REFRESH_INTERVAL / 2);
+        assertEquals(3, queue.getCurrentMsc());
+
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 5, 0, 0);
+        clock.advance(1);
+        assertEquals(4, queue.getMsc());
+    }
+
+    @Test
+    public void stalledDisplayAdvancesByTheMissedVBlanks() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 1, 0, 0);
+        clock.advance(1);
+        queue.queuePresent(pixmapPresent(1, 11, 2, 0), 2, 0, 0);
+        log.clear();
+
+        clock.stall(3 * REFRESH_INTERVAL);
+        clock.advance(1);
+        assertEquals(5, queue.getMsc());
+        assertLog("flip 2", "idle 1", "complete 2 FLIP msc=5 "+ust(5));
+        assertEquals(1, queue.getFramePacingStats().getMissedFrames());
+        assertEquals(REFRESH_INTERVAL, queue.getRefreshInterval());
+    }
+
+    @Test
+    public void refreshIntervalFollowsTheDisplay() {
+        long displayInterval = 1000000000L / 50;
+        SimulatedVBlankClock clock = new SimulatedVBlankClock(displayInterval);
+        queue.setVBlankClock(clock, queue::onVBlank);
+
+        for (int i = 0; i < 200; i++) {
+            queue.queuePresent(new PresentQueue.Entry(PresentExtension.Kind.MSC_NOTIFY, 1, 0, i), 0, 0, 0);
+            clock.advance(1);
+        }
+        assertEquals(200, queue.getMsc());
+        assertTrue(Math.abs(queue.getRefreshInterval() - displayInterval) < displayInterval / 100);
+    }
+
+    @Test
+    public void refreshIntervalFollowsFasterDisplays() {
+        long displayInterval = 1000000000L / 120;
+        SimulatedVBlankClock clock = new SimulatedVBlankClock(displayInterval);
+        queue.setVBlankClock(clock, queue::onVBlank);
+
+        for (int i = 0; i < 200; i++) {
+            queue.queuePresent(new PresentQueue.Entry(PresentExtension.Kind.MSC_NOTIFY, 1, 0, i), 0, 0, 0);
+            clock.advance(1);
+        }
+        assertEquals(200, queue.getMsc());
+        assertTrue(Math.abs(queue.getRefreshInterval() - displayInterval) < displayInterval / 100);
+    }
+
+    @Test
+    public void refreshIntervalIsClamped() {
+        SimulatedVBlankClock clock = new SimulatedVBlankClock(1000000000L / 1000);
+        queue.setVBlankClock(clock, queue::onVBlank);
+        for (int i = 0; i < 200; i++) {
+            queue.queuePresent(new PresentQueue.Entry(PresentExtension.Kind.MSC_NOTIFY, 1, 0, i), 0, 0, 0);
+            clock.advance(1);
+        }
+        assertEquals(PresentQueue.MIN_REFRESH_INTERVAL, queue.getRefreshInterval());
+    }
+
+    /* A gap of about two intervals is a missed vertical blank, not a slower display. */
+    @Test
+    public void halfRateDisplayCountsMissedVBlanks() {
+        SimulatedVBlankClock clock = new SimulatedVBlankClock(2 * REFRESH_INTERVAL);
+        queue.setVBlankClock(clock, queue::onVBlank);
+        for (int i = 0; i < 10; i++) {
+            queue.queuePresent(new PresentQueue.Entry(PresentExtension.Kind.MSC_NOTIFY, 1, 0, i), 0, 0, 0);
+            clock.advance(1);
+        }
+        assertEquals(REFRESH_INTERVAL, queue.getRefreshInterval());
+        assertEquals(20, queue.getMsc());
+    }
+
+    @Test
+    public void replacedAndReleasedClocksNoLongerSignal() {
+        queue.queuePresent(pixmapPresent(1, 10, 1, 0), 2, 0, 0);
+        SimulatedVBlankClock newClock = new SimulatedVBlankClock(REFRESH_INTERVAL);
+        queue.setVBlankClock(newClock, queue::onVBlank);
+
+        clock.advance(5);
+        assertLog();
+        newClock.advance(2);
+        assertLog("flip 1", "complete 1 FLIP msc=2 "+ust(2));
+
+        queue.queuePresent(pixmapPresent(1, 11, 2, 0), 3, 0, 0);
+        queue.release();
+        newClock.advance(5);
+        assertLog();
+        assertEquals(2, queue.getMsc());
+    }
+}